@@ -11,14 +11,73 @@ package edu.iastate.cs472.proj2;
  */
 public abstract class AdversarialSearch {
     protected CheckersData board;
+    
+    protected OpeningBook book; // moves chosen ahead of time for the first moves of a game, or null if there is no book
+    
+    protected boolean use_ponder = false; // after moving, keep searching the state expected next while the human (RED) player thinks
+    
+    private Thread ponder_thread; // the thread searching on the human (RED) player's time, null when there is none
+    
+    protected volatile boolean ponder_stop; // tells the pondering search to stop
+    
+    protected SearchStats stats; // statistics of the latest call of makeMove, null before the first
 
     // An instance of this class will be created in the Checkers.Board
     // It would be better to keep the default constructor.
+    public AdversarialSearch() {
+        this(OpeningBook.openDefault());
+    }
+    
+    /**
+     * @param book  the opening book to play from, or null for none
+     */
+    protected AdversarialSearch(OpeningBook book) {
+        this.book = book;
+    }
 
     protected void setCheckersData(CheckersData board) {
+        stopPondering(); // the pondering search uses the fields of this object, so it must be done before anything else happens
         this.board = board;
     }
     
+    /**
+     * Run a search on the human (RED) player's time, in a background thread, until stopPondering() is called.
+     * 
+     * @param search  the search, which should return soon after ponder_stop is set
+     * @param name    name of the thread
+     */
+    protected void ponder(Runnable search, String name) {
+    	stopPondering();
+    	ponder_thread = new Thread(search, name);
+    	ponder_thread.setDaemon(true); // pondering never keeps the game running
+    	ponder_thread.start();
+    }
+    
+    /**
+     * Stop pondering, and wait until the pondering search has stopped. Does nothing if there is none.
+     */
+    void stopPondering() {
+    	Thread thread = ponder_thread;
+    	if (thread == null) {
+    		return;
+    	}
+    	ponder_stop = true;
+    	boolean interrupted = false;
+    	while (thread.isAlive()) {
+    		try {
+    			thread.join();
+    		}
+    		catch (InterruptedException e) {
+    			interrupted = true; // the search has to finish before its fields can be used, so keep waiting
+    		}
+    	}
+    	if (interrupted) {
+    		Thread.currentThread().interrupt();
+    	}
+    	ponder_thread = null;
+    	ponder_stop = false;
+    }
+    
     /** 
      * @param player RED (Human) or BLACK (AI)
      * @return an array of valid moves
@@ -26,6 +85,30 @@ public abstract class AdversarialSearch {
     protected CheckersMove[] legalMoves(int player) {
     	return board.getLegalMoves(player); 
     }
+    
+    /**
+     * Look the current state up in the opening book, which is consulted before any search.
+     * 
+     * @param legalMoves  the moves the agent (BLACK) can make
+     * @return            a move from legalMoves, or null if the state is not in the book
+     */
+    protected CheckersMove bookMove(CheckersMove[] legalMoves) {
+    	if (book == null) {
+    		return null;
+    	}
+    	long start = System.nanoTime();
+    	CheckersMove move = book.lookup(board, legalMoves);
+    	stats.addPhase("book", System.nanoTime() - start);
+    	stats.book_move = move != null;
+    	return move;
+    }
+    
+    /**
+     * @return  statistics of the latest move made by makeMove, or null if it has made none
+     */
+    public SearchStats getSearchStats() {
+    	return stats;
+    }
 	
     /**
      * Return a move returned from either the alpha-beta search or the Monte Carlo tree search.
@@ -1,7 +1,11 @@
 package edu.iastate.cs472.proj2;
 
-import java.util.ArrayList;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 
@@ -14,13 +18,140 @@ import java.util.Random;
 */
 public class AlphaBetaSearch extends AdversarialSearch {
 	
-	int search_depth_limit = 8; // variable to determine how many steps ahead the agent can see
+	int search_depth_limit = 8; // variable to determine how many steps ahead the agent can see in the current iteration of the search
+	
+	int max_search_depth = 32; // the deepest iteration the search goes to when there is time left
+	
+	static final long NO_TIME_LIMIT_MS = Long.MAX_VALUE / 1000000; // a time_budget_ms that never runs out: about 292 years, the most whose nanoseconds fit in a long
+	
+	long time_budget_ms = 1000; // wall-clock time the agent may spend searching for a move, in milliseconds
+	
+	int completed_depth; // depth of the last iteration that finished, the one whose move is played
+	
+	long nodes; // number of states visited by the search
+	
+	long[] iteration_nodes = new long[max_search_depth + 1]; // iteration_nodes[d] is the number of states visited by the iteration of depth d
+	
+	long[] iteration_ns = new long[max_search_depth + 1]; // iteration_ns[d] is the time it took, in nanoseconds
+	
+	long deadline; // System.nanoTime() at which the search stops, checked only once an iteration has finished; compared by subtraction, since nanoTime() may wrap
+	
+	boolean search_aborted; // set when the time runs out; an iteration that is aborted is thrown away
+	
+	int helper_threads = 0; // number of extra threads that search the same state alongside this one, sharing the transposition table (lazy SMP); 0 searches on this thread only
+	
+	AlphaBetaSearch[] helpers; // the searches run by the helper threads, each with its own board, buffers and move ordering tables
+	
+	ExecutorService helper_pool; // the helper threads, kept from one move to the next
+	
+	Future<?>[] helper_tasks; // the helper searches of the current move
+	
+	AtomicBoolean stop_signal; // tells the helper searches to stop; shared by a search and its helpers
 	
 	int king_value = 3; // variable that determines the value of a king piece, which is going to be used in the evaluation function of a non-terminal node
 	
 	int normal_piece_value = 1; // variable that determines the value of a normal piece, which is going to be used in the evaluation function of a non-terminal node
 	
-	CheckersData[] next_state_board = new CheckersData[search_depth_limit + 1]; // array for storing the states at each search depth; + 1 to take into account initial state
+	CheckersData search_board; // the one board the search plays moves on and takes them back from, a copy of this.board so the game is never touched
+	
+	boolean use_quiescence = true; // at search_depth_limit, keep searching the jumps that have to be made before evaluating the state
+	
+	int max_quiescence_depth = 16; // the most plies of jumps searched past search_depth_limit
+	
+	long quiescence_nodes; // number of states searched past search_depth_limit because a jump had to be made
+	
+	long[][] move_buffers = new long[max_search_depth + max_quiescence_depth + 1][CheckersData.MAX_MOVES]; // move buffer for each search depth, so that searching allocates no moves; + 1 to take into account initial state
+	
+	int tt_size_mb = 16; // memory given to the transposition table, in megabytes; a change takes effect at the next search, which empties the table
+	
+	TranspositionTable tt; // results of positions searched so far, kept from one move to the next; shared with the helpers
+	
+	TranspositionTable.Probe tt_entry = new TranspositionTable.Probe(); // the entry found by the last probe of the transposition table
+	
+	int eval_cache_size_kb = 1024; // memory given to the evaluation cache, in kilobytes; a change takes effect at the next search, which empties the cache
+	
+	EvalCache eval_cache; // utilities of the leaves evaluated lately, kept from one move to the next; shared with the helpers
+	
+	long table_weights; // king_value and normal_piece_value the utilities in the evaluation cache and transposition table were computed with
+	
+	long eval_probes; // number of leaves looked up in the evaluation cache
+	
+	long eval_hits; // number of those found there
+	
+	long[][] killers = new long[max_search_depth + 1][2]; // the two latest moves at each search depth that caused a cutoff, searched early at other states of that depth
+	
+	int[][] history = new int[32][32]; // history[from][to] grows each time a move from square from to square to causes a cutoff, by more for deeper searches
+	
+	int[][] move_scores = new int[max_search_depth + 1][CheckersData.MAX_MOVES]; // ordering score of each move in move_buffers
+	
+	long cutoffs; // number of states that were pruned
+	
+	long first_move_cutoffs; // number of those pruned by the first move searched
+	
+	boolean use_pvs = false; // principal variation search: only the first move of a state gets the full window, the others are first tried with a null window
+	
+	boolean use_aspiration = false; // search each iteration after the first with a window around the score of the one before it
+	
+	double aspiration_window = 0.05; // half the width of the aspiration window; a piece is worth 1 / 36
+	
+	boolean use_lmr = false; // late move reductions: quiet moves late in the order are first searched lmr_reduction plies shallower, with a null window
+	
+	int lmr_min_draft = 3; // plies that must be left below a state for its moves to be reduced
+	
+	int lmr_late_move = 3; // moves before this index in the order are never reduced
+	
+	int lmr_reduction = 1; // plies taken off a reduced move
+	
+	boolean use_futility = false; // frontier futility pruning: one ply from the horizon, quiet moves are skipped if the static utility cannot reach the window
+	
+	double futility_margin = 0.03; // the most a quiet move is assumed to change the utility; a piece is worth 1 / 36
+	
+	long lmr_reductions; // number of moves searched reduced
+	
+	long lmr_researches; // number of those that beat the window and were searched again to full depth
+	
+	long futility_prunes; // number of moves skipped by futility pruning
+	
+	long ponder_key; // zobristKey(BLACK) of the state searched while the human (RED) player was thinking, 0 if none
+	
+	long pondered_ms; // how long that state was searched
+	
+	int pondered_depth; // depth of the last iteration of that search that finished
+	
+	long pondered_nodes; // number of states that search visited
+	
+	long[] pondered_iteration_nodes; // iteration_nodes of that search
+	
+	long[] pondered_iteration_ns; // iteration_ns of that search
+	
+	Tablebase tablebase; // solved endgames looked up at every state searched, or null when there is no tablebase; shared with the helpers
+	
+	double root_value; // utility of the current state found by the last searchRoot() call
+	
+	long pvs_researches; // number of null window searches that had to be repeated with the full window
+	
+	long aspiration_researches; // number of iterations that had to be repeated with a wider window
+	
+    public AlphaBetaSearch(){
+    	tt = new TranspositionTable(tt_size_mb);
+    	eval_cache = new EvalCache(eval_cache_size_kb);
+    	stop_signal = new AtomicBoolean();
+    	tablebase = Tablebase.openDefault();
+    }
+    
+    /**
+     * Makes a helper of a search, which shares its transposition table, evaluation cache, tablebase and stop signal instead
+     * of making or opening its own. A helper has no opening book.
+     * 
+     * @param search  the search to help
+     */
+    private AlphaBetaSearch(AlphaBetaSearch search){
+    	super(null);
+    	tt = search.tt;
+    	eval_cache = search.eval_cache;
+    	stop_signal = search.stop_signal;
+    	tablebase = search.tablebase;
+    }
 
     /**
      * The input parameter legalMoves contains all the possible moves.
@@ -45,160 +176,958 @@ public class AlphaBetaSearch extends AdversarialSearch {
         // 2 - red king
         // 3 - black man
         // 4 - black king
+        stats = new SearchStats(SearchStats.ALPHA_BETA);
+        long pondered_key = ponder_key; // taken now, so that no way out of this move leaves it behind for a later one
+        ponder_key = 0;
         System.out.println(board);
         System.out.println();
 
         if (legalMoves == null) { // If there are not legal moves for the agent, return null since no move can be executed
-        	return null;
+        	return stats.finish(null);
         }
         else if (legalMoves.length == 1) { // If there is just one legal move, immediately return it so as to not waste time executing alpha-beta search
-        	return legalMoves[0];
+        	return stats.finish(legalMoves[0]);
         }
         // There is more than one legal move, therefore, searching is needed to find optimal move
         else{
-        	int index = getBestMove(legalMoves);
-        	return legalMoves[index];
+        	// A state in the opening book needs no search
+        	CheckersMove book_move = bookMove(legalMoves);
+        	if (book_move != null){
+        		return stats.finish(book_move);
+        	}
+        	tt_entry.resetCounters();
+        	long tablebase_probes = tablebase == null ? 0 : tablebase.probes();
+        	// After a ponder hit this state has been searched already, on the human (RED) player's time; the results are in the
+        	// transposition table, so only what is left of the time budget is needed. After a miss the results are not used.
+        	long budget_ms = time_budget_ms;
+        	if (pondered_key != 0 && pondered_key == board.zobristKey(CheckersData.BLACK)){
+        		budget_ms = Math.max(0, budget_ms - pondered_ms);
+        		stats.ponder_hit = true;
+        	}
+        	long start = System.nanoTime();
+        	int index = getBestMove(board, legalMoves, budget_ms);
+        	stats.addPhase("search", System.nanoTime() - start);
+        	recordStats();
+        	if (tablebase != null){
+        		stats.tablebase_probes = tablebase.probes() - tablebase_probes;
+        	}
+        	if (use_ponder){
+        		long ponder_start = System.nanoTime();
+        		startPondering(legalMoves[index]);
+        		stats.addPhase("ponder start", System.nanoTime() - ponder_start);
+        	}
+        	return stats.finish(legalMoves[index]);
         }
     }
     
     /**
      * Given a list of moves the agent (BLACK) can execute, this function performs alpha-beta search to search for the move that has the maximum utility for the agent (BLACK). 
+     * The search is deepened one ply at a time, from depth 1 up to max_search_depth, until time_budget_ms has been used up. Each iteration
+     * searches the best move of the one before it first, and an iteration that runs out of time is thrown away, so the move returned is the
+     * best move of the deepest iteration that finished. The first iteration always finishes.
+     * 
+     * With helper_threads above 0, helper threads search the same state at the same time, storing what they find in the shared
+     * transposition table, where this search picks it up. Only this search chooses the move, so with no helpers the result is
+     * exactly that of the single-threaded search.
      * 
      * @param legalMoves  the available moves the agent (BLACK) can execute
      * 
      * @return            the index of the move in legalMoves that result in the maximum utility for the agent (BLACK)
      */
-    private int getBestMove(CheckersMove[] legalMoves){
-    	int search_depth = 0;
-		double alpha = Double.NEGATIVE_INFINITY;
-		double beta = Double.POSITIVE_INFINITY;
-    	double value = Double.NEGATIVE_INFINITY;
+    int getBestMove(CheckersMove[] legalMoves){
+    	return getBestMove(board, legalMoves, time_budget_ms);
+    }
+    
+    /**
+     * Searches a given state, as getBestMove(legalMoves) searches this.board, with a given time budget instead of
+     * time_budget_ms. Neither field is read, so the search can run on a state and budget of its own.
+     * 
+     * @param state       the state to search, which is left as it was found
+     * @param legalMoves  the available moves the agent (BLACK) can execute in state
+     * @param budget_ms   wall-clock time the search may take, in milliseconds
+     * 
+     * @return            the index of the move in legalMoves that result in the maximum utility for the agent (BLACK)
+     */
+    int getBestMove(CheckersData state, CheckersMove[] legalMoves, long budget_ms){
     	int index = 0;
 		
     	// check if human (RED) player has valid moves
-    	CheckersMove[] redLegalMoves = legalMoves(CheckersData.RED);
-    	if (redLegalMoves == null){
+    	if (!state.hasLegalMove(CheckersData.RED)){
     		// agent (BLACK) wins if human (RED) player has no more valid moves, so we can just return the first move in the list of legal moves
     		return index;
     	}
     	
-    	next_state_board[search_depth] = this.board; // Initialize the first state to be the current state
-    	search_depth++;
+    	long start = System.nanoTime();
+    	sizeTables();
+    	stop_signal.set(false); // the helpers of the last search were stopped with it
+    	prepareSearch(state);
     	
-    	// agent (BLACK) has valid moves
-    	for (int i = 0; i < legalMoves.length; i++){
-    		next_state_board[search_depth] = next_state_board[search_depth-1].cloneData(); // Make a deep copy of the previous state so as to not modify it
-    		next_state_board[search_depth].makeMove(legalMoves[i]);
-    		CheckersMove[] minLegalMoves = next_state_board[search_depth].getLegalMoves(CheckersData.RED);
-        	double next_state_value = min_value(minLegalMoves, search_depth, alpha, beta);
+    	// A move from the transposition table, left there by the search of an earlier move, is searched first in the first iteration
+    	if (tt.probe(search_board.zobristKey(CheckersData.BLACK), tt_entry)){
+    		index = Math.max(indexOf(legalMoves, tt_entry.move), 0);
+    	}
+    	
+    	startHelpers(state, legalMoves, index, start, budget_ms);
+    	index = iterate(legalMoves, index, 1, start, budget_ms);
+    	stopHelpers();
+    	return index;
+    }
+    
+    /**
+     * Copies the counters of the search that just finished into stats. After a ponder hit, the depth, nodes and iterations are
+     * those of the search made while the human (RED) player thought, whose results this one found in the transposition table,
+     * and the nodes of both searches are counted.
+     */
+    private void recordStats(){
+    	boolean pondered = stats.ponder_hit && pondered_depth > completed_depth;
+    	stats.depth = pondered ? pondered_depth : completed_depth;
+    	stats.nodes = nodes;
+    	if (stats.ponder_hit){
+    		stats.ponder_ms = pondered_ms;
+    		stats.ponder_nodes = pondered_nodes;
+    		stats.nodes += pondered_nodes;
+    	}
+    	stats.leaf_evals = eval_probes;
+    	stats.eval_cache_hits = eval_hits;
+    	stats.quiescence_nodes = quiescence_nodes;
+    	stats.cutoffs = cutoffs;
+    	stats.first_move_cutoffs = first_move_cutoffs;
+    	stats.tt_probes = tt_entry.probes;
+    	stats.tt_hits = tt_entry.hits;
+    	stats.lmr_reductions = lmr_reductions;
+    	stats.lmr_researches = lmr_researches;
+    	stats.futility_prunes = futility_prunes;
+    	stats.pvs_researches = pvs_researches;
+    	stats.aspiration_researches = aspiration_researches;
+    	if (helpers != null && helper_threads > 0){
+    		for (int i = 0; i < helper_threads; i++){
+    			stats.helper_nodes += helpers[i].nodes;
+    		}
+    	}
+    	for (int depth = 1; depth <= stats.depth; depth++){
+    		stats.iteration_nodes.add(pondered ? pondered_iteration_nodes[depth] : iteration_nodes[depth]);
+    		stats.iteration_ns.add(pondered ? pondered_iteration_ns[depth] : iteration_ns[depth]);
+    	}
+    }
+    
+    /**
+     * Starts pondering: searching, while the human (RED) player thinks, the state after the agent's move and the reply
+     * the search expects, which is the best move it stored for RED in the transposition table. The search has no time
+     * limit; it runs until stopPondering() is called.
+     * 
+     * @param move  the move the agent (BLACK) is making
+     */
+    private void startPondering(CheckersMove move){
+    	CheckersData expected = board.cloneData();
+    	expected.makeMove(move);
+    	if (!tt.probe(expected.zobristKey(CheckersData.RED), tt_entry) || tt_entry.move == 0){
+    		return;
+    	}
+    	CheckersMove[] replies = expected.getLegalMoves(CheckersData.RED);
+    	if (replies == null || indexOf(replies, tt_entry.move) < 0){
+    		return;
+    	}
+    	expected.makeMove(tt_entry.move);
+    	CheckersMove[] nextMoves = expected.getLegalMoves(CheckersData.BLACK);
+    	if (nextMoves == null || nextMoves.length == 1){ // nothing to search
+    		return;
+    	}
+    	ponder_key = expected.zobristKey(CheckersData.BLACK);
+    	ponder(() -> {
+    		long start = System.nanoTime();
+    		getBestMove(expected, nextMoves, NO_TIME_LIMIT_MS);
+    		pondered_ms = (System.nanoTime() - start) / 1000000;
+    		pondered_depth = completed_depth;
+    		pondered_nodes = nodes;
+    		pondered_iteration_nodes = iteration_nodes.clone();
+    		pondered_iteration_ns = iteration_ns.clone();
+    	}, "alpha-beta ponder");
+    }
+    
+    /**
+     * Replaces the transposition table if tt_size_mb has changed since it was made, and the evaluation cache if
+     * eval_cache_size_kb has, and empties both if king_value or normal_piece_value has changed since they were filled.
+     * Only the search that owns them calls this, never a helper, which uses those of its search.
+     */
+    void sizeTables(){
+    	if (tt.size_mb != tt_size_mb){
+    		tt = new TranspositionTable(tt_size_mb);
+    	}
+    	if (eval_cache.size_kb != eval_cache_size_kb){
+    		eval_cache = new EvalCache(eval_cache_size_kb);
+    	}
+    	// Utilities and the scores searched from them only hold for the piece values they were computed with
+    	long weights = (long) king_value << 32 | normal_piece_value;
+    	if (weights != table_weights){
+    		tt.clear();
+    		eval_cache.clear();
+    		table_weights = weights;
+    	}
+    }
+    
+    /**
+     * Gets ready for a new search of a state: makes sure the buffers are big enough, resets the counters and
+     * copies the state to search_board.
+     */
+    void prepareSearch(CheckersData state){
+    	if (move_buffers.length < max_search_depth + max_quiescence_depth + 1){ // the depth limit has been raised since the buffers were made
+    		move_buffers = new long[max_search_depth + max_quiescence_depth + 1][CheckersData.MAX_MOVES];
+    		move_scores = new int[max_search_depth + 1][CheckersData.MAX_MOVES];
+    		killers = new long[max_search_depth + 1][2];
+    		iteration_nodes = new long[max_search_depth + 1];
+    		iteration_ns = new long[max_search_depth + 1];
+    	}
+    	ageOrdering(killers, history);
+    	cutoffs = 0;
+    	first_move_cutoffs = 0;
+    	pvs_researches = 0;
+    	aspiration_researches = 0;
+    	quiescence_nodes = 0;
+    	eval_probes = 0;
+    	eval_hits = 0;
+    	lmr_reductions = 0;
+    	lmr_researches = 0;
+    	futility_prunes = 0;
+    	search_board = state.cloneData(); // Initialize the search board to be a copy of the state, so the state is never touched
+    	nodes = 0;
+    	completed_depth = 0;
+    	search_aborted = false;
+    }
+    
+    /**
+     * Gets move ordering tables ready for the search of a new state. Killers belong to the previous state; the history of
+     * cutoffs still helps, but counts for less than the cutoffs to come.
+     * 
+     * @param killers  the killer moves of each search depth, which are forgotten
+     * @param history  the history scores, which are halved
+     */
+    static void ageOrdering(long[][] killers, int[][] history){
+    	for (int i = 0; i < killers.length; i++){
+    		killers[i][0] = killers[i][1] = 0;
+    	}
+    	for (int from = 0; from < 32; from++){
+    		for (int to = 0; to < 32; to++){
+    			history[from][to] >>= 1;
+    		}
+    	}
+    }
+    
+    /**
+     * Deepens the search iteratively, from first_depth up to max_search_depth, until budget_ms has passed since start
+     * or stop_signal is set.
+     * 
+     * @param legalMoves   the available moves the agent (BLACK) can execute
+     * @param index        the index of the move in legalMoves to search first
+     * @param first_depth  the depth of the first iteration
+     * @param start        System.nanoTime() at which the search of this move started
+     * @param budget_ms    wall-clock time the search may take, in milliseconds
+     * 
+     * @return             the index of the best move found by the deepest iteration that finished
+     */
+    private int iterate(CheckersMove[] legalMoves, int index, int first_depth, long start, long budget_ms){
+    	for (int depth = first_depth; depth <= max_search_depth; depth++){
+    		search_depth_limit = depth;
+    		long iteration_start = System.nanoTime();
+    		long iteration_start_nodes = nodes;
+    		double alpha = Double.NEGATIVE_INFINITY;
+    		double beta = Double.POSITIVE_INFINITY;
+    		if (use_aspiration && depth > 1){ // expect the score to stay close to that of the last iteration
+    			alpha = root_value - aspiration_window;
+    			beta = root_value + aspiration_window;
+    		}
+    		int iteration_index = searchRoot(legalMoves, index, alpha, beta);
+    		// When the score falls outside the window it is only a bound, so search again with that side of the window opened up
+    		while (!search_aborted && (root_value <= alpha || root_value >= beta)){
+    			aspiration_researches++;
+    			if (root_value <= alpha){
+    				alpha = Double.NEGATIVE_INFINITY;
+    			}
+    			else{
+    				beta = Double.POSITIVE_INFINITY;
+    			}
+    			iteration_index = searchRoot(legalMoves, iteration_index, alpha, beta);
+    		}
+    		if (search_aborted){ // out of time: keep the move of the last iteration that finished
+    			break;
+    		}
+    		index = iteration_index;
+    		completed_depth = depth;
+    		iteration_nodes[depth] = nodes - iteration_start_nodes;
+    		iteration_ns[depth] = System.nanoTime() - iteration_start;
+    		deadline = start + Math.min(budget_ms, NO_TIME_LIMIT_MS) * 1000000L;
+    		if (System.nanoTime() - deadline >= 0){
+    			break;
+    		}
+    	}
+    	return index;
+    }
+    
+    /**
+     * Starts the helper searches of lazy SMP, if there are helper threads. Each helper runs its own iterative deepening of the same
+     * state, with the same settings and time budget but its own move ordering tables. To keep them from all searching the same
+     * states in the same order, odd helpers skip the first iteration and each helper starts with a different root move.
+     * 
+     * @param state       the state to search
+     * @param legalMoves  the available moves the agent (BLACK) can execute
+     * @param index       the index of the move in legalMoves this search tries first
+     * @param start       System.nanoTime() at which the search of this move started
+     * @param budget_ms   wall-clock time the search may take, in milliseconds
+     */
+    private void startHelpers(CheckersData state, CheckersMove[] legalMoves, int index, long start, long budget_ms){
+    	if (helper_threads <= 0){
+    		return;
+    	}
+    	if (helpers == null || helpers.length != helper_threads){
+    		if (helper_pool != null){
+    			helper_pool.shutdown();
+    		}
+    		helper_pool = Executors.newFixedThreadPool(helper_threads, task -> {
+    			Thread thread = new Thread(task, "alpha-beta helper");
+    			thread.setDaemon(true); // the helpers never keep the game running
+    			return thread;
+    		});
+    		helpers = new AlphaBetaSearch[helper_threads];
+    		helper_tasks = new Future<?>[helper_threads];
+    		for (int i = 0; i < helper_threads; i++){
+    			helpers[i] = new AlphaBetaSearch(this);
+    		}
+    	}
+    	for (int i = 0; i < helper_threads; i++){
+    		AlphaBetaSearch helper = helpers[i];
+    		helper.tt = tt;
+    		helper.eval_cache = eval_cache;
+    		helper.tablebase = tablebase;
+    		helper.stop_signal = stop_signal;
+    		helper.max_search_depth = max_search_depth;
+    		helper.max_quiescence_depth = max_quiescence_depth;
+    		helper.use_quiescence = use_quiescence;
+    		helper.use_pvs = use_pvs;
+    		helper.use_aspiration = use_aspiration;
+    		helper.aspiration_window = aspiration_window;
+    		helper.use_lmr = use_lmr;
+    		helper.lmr_min_draft = lmr_min_draft;
+    		helper.lmr_late_move = lmr_late_move;
+    		helper.lmr_reduction = lmr_reduction;
+    		helper.use_futility = use_futility;
+    		helper.futility_margin = futility_margin;
+    		helper.king_value = king_value;
+    		helper.normal_piece_value = normal_piece_value;
+    		int first = (index + i + 1) % legalMoves.length;
+    		int first_depth = 1 + (i & 1);
+    		helper_tasks[i] = helper_pool.submit(() -> {
+    			helper.prepareSearch(state);
+    			helper.iterate(legalMoves, first, first_depth, start, budget_ms);
+    		});
+    	}
+    }
+    
+    /**
+     * Stops the helper searches and waits for them to finish, so that none is still running when the next move is searched
+     * and their counters can be read. An interrupt does not cut the wait short; the interrupt status is restored once all the
+     * helpers have finished.
+     */
+    private void stopHelpers(){
+    	if (helper_threads <= 0 || helper_tasks == null){
+    		return;
+    	}
+    	stop_signal.set(true);
+    	boolean interrupted = false;
+    	Throwable failure = null;
+    	for (Future<?> task : helper_tasks){
+    		while (true){
+    			try {
+    				task.get();
+    				break;
+    			}
+    			catch (InterruptedException e){
+    				interrupted = true;
+    			}
+    			catch (ExecutionException e){
+    				if (failure == null){
+    					failure = e.getCause();
+    				}
+    				break;
+    			}
+    		}
+    	}
+    	if (interrupted){
+    		Thread.currentThread().interrupt();
+    	}
+    	if (failure != null){
+    		throw new RuntimeException("Helper search failed", failure);
+    	}
+    }
+    
+    /**
+     * Searches the current state to search_depth_limit for the move that has the maximum utility for the agent (BLACK),
+     * and leaves its utility in root_value. If root_value is at most alpha or at least beta it is only a bound on the utility,
+     * and the move returned may not be the best.
+     * 
+     * @param legalMoves  the available moves the agent (BLACK) can execute
+     * @param first       the index of the move in legalMoves to search first
+     * @param alpha       the minimum utility that the agent (BLACK) is assured of
+     * @param beta        the maximum utility that the human (RED) player is assured of
+     * 
+     * @return            the index of the move in legalMoves that result in the maximum utility for the agent (BLACK);
+     *                    meaningless if the search was aborted
+     */
+    private int searchRoot(CheckersMove[] legalMoves, int first, double alpha, double beta){
+    	int search_depth = 1;
+    	double value = Double.NEGATIVE_INFINITY;
+    	double original_alpha = alpha;
+    	int index = first;
+    	
+    	// A position searched before to at least this depth already has its best move
+    	long key = search_board.zobristKey(CheckersData.BLACK);
+    	if (tt.probe(key, tt_entry) && tt_entry.bound == TranspositionTable.EXACT && tt_entry.depth >= search_depth_limit){
+    		int tt_index = indexOf(legalMoves, tt_entry.move);
+    		if (tt_index >= 0){
+    			root_value = tt_entry.score;
+    			return tt_index;
+    		}
+    	}
+    	
+    	// agent (BLACK) has valid moves; the move given as first is searched first, the others in their usual order
+    	for (int n = 0; n < legalMoves.length; n++){
+    		int i = n == 0 ? first : (n <= first ? n - 1 : n);
+    		long move = legalMoves[i].toCode();
+    		long undo = search_board.makeMove(move);
+    		double next_state_value;
+    		if (use_pvs && n > 0){
+    			// Try to show that the move is no better than the best so far; only if it is better is its utility needed
+    			next_state_value = min_value(search_depth, alpha, Math.nextUp(alpha));
+    			if (next_state_value > alpha && next_state_value < beta && !search_aborted){
+    				pvs_researches++;
+    				next_state_value = min_value(search_depth, alpha, beta);
+    			}
+    		}
+    		else{
+    			next_state_value = min_value(search_depth, alpha, beta);
+    		}
+        	search_board.unmakeMove(move, undo); // Take the move back so the board is the current state again
+        	if (search_aborted){
+        		return index;
+        	}
         	if (next_state_value > value){
         		index = i;
         		value = next_state_value;
         	}  
         	if (value >= beta){
+        		root_value = value;
+        		tt.store(key, search_depth_limit, TranspositionTable.LOWER, value, legalMoves[index].toCode());
         		return index;
         	}
         	alpha = Math.max(alpha, value);
         }
+    	root_value = value;
+    	tt.store(key, search_depth_limit, value <= original_alpha ? TranspositionTable.UPPER : TranspositionTable.EXACT, value, legalMoves[index].toCode());
         return index;
     }
 
     /**
-     * Computes the maximum utility value the agent (BLACK) can achieve at the given search depth
+     * Computes the maximum utility value the agent (BLACK) can achieve at the given search depth.
+     * The state is search_board, which is left as it was found.
      * 
-     * @param legalMoves  the available moves the agent (BLACK) can execute
      * @param depth       the current search depth
      * @param alpha       the minimum utility that the agent (BLACK) is assured of
      * @param beta        the maximum utility that the human (RED) player is assured of
      * 
      * @return            the maximum utility value that the agent (BLACK) can achieve at this search depth
      */
-    private double max_value(CheckersMove[] legalMoves, int depth, double alpha, double beta){
+    private double max_value(int depth, double alpha, double beta){
+    	// a solved endgame needs no search
+    	if (tablebase != null){
+    		int solved = tablebase.probe(search_board, CheckersData.BLACK);
+    		if (solved >= 0){
+    			return Tablebase.utility(solved, CheckersData.BLACK);
+    		}
+    	}
+    	if (use_quiescence && depth >= search_depth_limit){
+    		return quiescence_max(depth, alpha, beta);
+    	}
     	double value = Double.NEGATIVE_INFINITY;
+    	if (outOfTime()){
+    		return 0;
+    	}
   	
     	// Terminal node check: Check if agent (BLACK) has any moves to execute
-    	if (legalMoves == null){
+    	if (!search_board.hasLegalMove(CheckersData.BLACK)){
     		// human (RED) wins if agent (BLACK) has no more valid moves
     		return -1;
     	}
     	
     	// Terminal node check: Check if human (RED) player has valid moves
-    	CheckersMove[] redLegalMoves = next_state_board[depth].getLegalMoves(CheckersData.RED);
-    	if (redLegalMoves == null){
+    	if (!search_board.hasLegalMove(CheckersData.RED)){
     		// agent (BLACK) wins if human (RED) player has no more valid moves
     		return 1;
     	}
     	
     	// if maximum search depth is reached, return the utility of the non-terminal state
     	if (depth >= search_depth_limit){ 
-    		return improved_utility(next_state_board[depth]);
+    		return evaluate(search_board);
+    	}
+    	
+    	// A result from the transposition table searched at least as deep may settle this state without searching it
+    	int draft = search_depth_limit - depth;
+    	long key = search_board.zobristKey(CheckersData.BLACK);
+    	long ttMove = 0;
+    	if (tt.probe(key, tt_entry)){
+    		ttMove = tt_entry.move;
+    		if (tt_entry.depth >= draft && isCutoff(alpha, beta)){
+    			return tt_entry.score;
+    		}
     	}
     	
     	int next_depth = depth + 1;
+    	long[] legalMoves = move_buffers[depth];
+    	int num_moves = search_board.generateMoves(CheckersData.BLACK, legalMoves); // the only time this node generates its moves
+    	orderMoves(depth, num_moves, ttMove);
+    	double original_alpha = alpha;
+    	long bestMove = 0;
+    	
+    	// One ply from the horizon, a quiet move leads to a state evaluated about as this one is; if even futility_margin more
+    	// would not reach alpha, it is not searched
+    	boolean frontier = use_futility && draft == 1;
+    	double futility_value = frontier ? evaluate(search_board) + futility_margin : 0;
     	
     	// agent (BLACK) has valid moves
-        for (CheckersMove nextMove: legalMoves){
-        	next_state_board[next_depth] = next_state_board[depth].cloneData(); // Make a deep copy of the previous state so as to not modify it
-        	next_state_board[next_depth].makeMove(nextMove);
-        	CheckersMove[] minLegalMoves = next_state_board[next_depth].getLegalMoves(CheckersData.RED);
-        	value = Math.max(min_value(minLegalMoves, next_depth, alpha, beta), value);
+        for (int i = 0; i < num_moves; i++){
+        	long nextMove = legalMoves[i];
+        	boolean quiet = isQuiet(nextMove, CheckersData.BLACK);
+        	long undo = search_board.makeMove(nextMove);
+        	// a move that leaves the human (RED) player a jump to make, or no move at all, is never pruned
+        	if (frontier && quiet && futility_value <= alpha && search_board.jumpers(CheckersData.RED) == 0 && search_board.hasLegalMove(CheckersData.RED)){
+        		search_board.unmakeMove(nextMove, undo);
+        		futility_prunes++;
+        		value = Math.max(value, futility_value);
+        		continue;
+        	}
+        	double next_state_value = 0;
+        	boolean searched = false;
+        	if (use_lmr && quiet && i >= lmr_late_move && draft >= lmr_min_draft){
+        		// a late quiet move is expected to fail low, which a shallower null window search can show; if it does not, it gets the full depth
+        		lmr_reductions++;
+        		next_state_value = min_value(next_depth + lmr_reduction, alpha, Math.nextUp(alpha));
+        		searched = next_state_value <= alpha || search_aborted;
+        		if (!searched){
+        			lmr_researches++;
+        		}
+        	}
+        	if (!searched){
+        		if (use_pvs && i > 0){
+        			// null window: only whether the move beats alpha matters, unless it does
+        			next_state_value = min_value(next_depth, alpha, Math.nextUp(alpha));
+        			if (next_state_value > alpha && next_state_value < beta && !search_aborted){
+        				pvs_researches++;
+        				next_state_value = min_value(next_depth, alpha, beta);
+        			}
+        		}
+        		else{
+        			next_state_value = min_value(next_depth, alpha, beta);
+        		}
+        	}
+        	search_board.unmakeMove(nextMove, undo);
+        	if (search_aborted){ // the value is incomplete, so it is not stored
+        		return value;
+        	}
+        	if (next_state_value > value){
+        		value = next_state_value;
+        		bestMove = nextMove;
+        	}
 
         	if (value >= beta){ // pruning
+        		recordCutoff(depth, draft, nextMove, i);
+        		tt.store(key, draft, TranspositionTable.LOWER, value, bestMove);
         		return value;
         	}
         	alpha = Math.max(alpha, value);
         }
+        tt.store(key, draft, value <= original_alpha ? TranspositionTable.UPPER : TranspositionTable.EXACT, value, bestMove);
         return value;
     }
     
     /**
-     * Computes the minimum utility value the human (RED) player can achieve at the given search depth
+     * Computes the minimum utility value the human (RED) player can achieve at the given search depth.
+     * The state is search_board, which is left as it was found.
      * 
-     * @param legalMoves  the available moves the human (BLACK) player can execute
      * @param depth       the current search depth
      * @param alpha       the minimum utility that the agent (BLACK) is assured of
      * @param beta        the maximum utility that the human (RED) player is assured of
      * 
      * @return            the minimum utility value that the human (RED) player can achieve at this search depth
      */
-    private double min_value(CheckersMove[] legalMoves, int depth, double alpha, double beta){
+    private double min_value(int depth, double alpha, double beta){
+    	// a solved endgame needs no search
+    	if (tablebase != null){
+    		int solved = tablebase.probe(search_board, CheckersData.RED);
+    		if (solved >= 0){
+    			return Tablebase.utility(solved, CheckersData.RED);
+    		}
+    	}
+    	if (use_quiescence && depth >= search_depth_limit){
+    		return quiescence_min(depth, alpha, beta);
+    	}
     	double value = Double.POSITIVE_INFINITY;
+    	if (outOfTime()){
+    		return 0;
+    	}
 
     	// Terminal node check: Check if human (RED) player has any moves to execute
-    	if (legalMoves == null){
+    	if (!search_board.hasLegalMove(CheckersData.RED)){
     		// agent (BLACK) wins if human (RED) player has no more moves
     		return 1;
     	}
  
     	// Terminal node check: check if agent (BLACK) has valid moves
-    	CheckersMove[] blkLegalMoves = next_state_board[depth].getLegalMoves(CheckersData.BLACK);
-    	if (blkLegalMoves == null){
+    	if (!search_board.hasLegalMove(CheckersData.BLACK)){
     		// human (RED) player wins if agent (BLACK) player has no more moves
     		return -1;
     	}
     	
     	// if maximum search depth is reached, return the utility of the non-terminal state
     	if (depth >= search_depth_limit){ 
-    		return improved_utility(next_state_board[depth]);
+    		return evaluate(search_board);
+    	}
+    	
+    	// A result from the transposition table searched at least as deep may settle this state without searching it
+    	int draft = search_depth_limit - depth;
+    	long key = search_board.zobristKey(CheckersData.RED);
+    	long ttMove = 0;
+    	if (tt.probe(key, tt_entry)){
+    		ttMove = tt_entry.move;
+    		if (tt_entry.depth >= draft && isCutoff(alpha, beta)){
+    			return tt_entry.score;
+    		}
     	}
     	
     	int next_depth = depth + 1;
+    	long[] legalMoves = move_buffers[depth];
+    	int num_moves = search_board.generateMoves(CheckersData.RED, legalMoves); // the only time this node generates its moves
+    	orderMoves(depth, num_moves, ttMove);
+    	double original_beta = beta;
+    	long bestMove = 0;
+    	
+    	// One ply from the horizon, a quiet move leads to a state evaluated about as this one is; if even futility_margin less
+    	// would not get below beta, it is not searched
+    	boolean frontier = use_futility && draft == 1;
+    	double futility_value = frontier ? evaluate(search_board) - futility_margin : 0;
     	
     	// human (RED) player has valid moves
-        for (CheckersMove nextMove: legalMoves){
-        	next_state_board[next_depth] = next_state_board[depth].cloneData(); // Make a deep copy of the previous state so as to not modify it
-        	next_state_board[next_depth].makeMove(nextMove);
-        	CheckersMove[] maxLegalMoves = next_state_board[next_depth].getLegalMoves(CheckersData.BLACK);
-        	value = Math.min(max_value(maxLegalMoves, next_depth, alpha, beta), value);
+        for (int i = 0; i < num_moves; i++){
+        	long nextMove = legalMoves[i];
+        	boolean quiet = isQuiet(nextMove, CheckersData.RED);
+        	long undo = search_board.makeMove(nextMove);
+        	// a move that leaves the agent (BLACK) a jump to make, or no move at all, is never pruned
+        	if (frontier && quiet && futility_value >= beta && search_board.jumpers(CheckersData.BLACK) == 0 && search_board.hasLegalMove(CheckersData.BLACK)){
+        		search_board.unmakeMove(nextMove, undo);
+        		futility_prunes++;
+        		value = Math.min(value, futility_value);
+        		continue;
+        	}
+        	double next_state_value = 0;
+        	boolean searched = false;
+        	if (use_lmr && quiet && i >= lmr_late_move && draft >= lmr_min_draft){
+        		// a late quiet move is expected to fail high, which a shallower null window search can show; if it does not, it gets the full depth
+        		lmr_reductions++;
+        		next_state_value = max_value(next_depth + lmr_reduction, Math.nextDown(beta), beta);
+        		searched = next_state_value >= beta || search_aborted;
+        		if (!searched){
+        			lmr_researches++;
+        		}
+        	}
+        	if (!searched){
+        		if (use_pvs && i > 0){
+        			// null window: only whether the move gets below beta matters, unless it does
+        			next_state_value = max_value(next_depth, Math.nextDown(beta), beta);
+        			if (next_state_value < beta && next_state_value > alpha && !search_aborted){
+        				pvs_researches++;
+        				next_state_value = max_value(next_depth, alpha, beta);
+        			}
+        		}
+        		else{
+        			next_state_value = max_value(next_depth, alpha, beta);
+        		}
+        	}
+        	search_board.unmakeMove(nextMove, undo);
+        	if (search_aborted){ // the value is incomplete, so it is not stored
+        		return value;
+        	}
+        	if (next_state_value < value){
+        		value = next_state_value;
+        		bestMove = nextMove;
+        	}
         	
         	if (value <= alpha){ // pruning
+        		recordCutoff(depth, draft, nextMove, i);
+        		tt.store(key, draft, TranspositionTable.UPPER, value, bestMove);
         		return value;
         	}
         	beta = Math.min(beta,  value);
         }
+        tt.store(key, draft, value >= original_beta ? TranspositionTable.LOWER : TranspositionTable.EXACT, value, bestMove);
         return value;  
     }
 
+    /**
+     * Quiescence search for the agent (BLACK) past search_depth_limit. A state where the agent (BLACK) has no jump is quiet
+     * and stands pat on its evaluation. A state with a jump is not, since the jump has to be made, so all the jumps are searched.
+     * This keeps the search from evaluating a state halfway through an exchange of pieces.
+     * 
+     * @param depth       the current search depth
+     * @param alpha       the minimum utility that the agent (BLACK) is assured of
+     * @param beta        the maximum utility that the human (RED) player is assured of
+     * 
+     * @return            the maximum utility value that the agent (BLACK) can achieve once no jumps are left to make
+     */
+    private double quiescence_max(int depth, double alpha, double beta){
+    	double value = Double.NEGATIVE_INFINITY;
+    	if (outOfTime()){
+    		return 0;
+    	}
+    	if (!search_board.hasLegalMove(CheckersData.BLACK)){
+    		return -1;
+    	}
+    	if (!search_board.hasLegalMove(CheckersData.RED)){
+    		return 1;
+    	}
+    	
+    	// stand pat: with no jump to make, or no plies left to extend by, the state is evaluated as it is
+    	if (search_board.jumpers(CheckersData.BLACK) == 0 || depth >= search_depth_limit + max_quiescence_depth){
+    		return evaluate(search_board);
+    	}
+    	quiescence_nodes++;
+    	
+    	long[] legalMoves = move_buffers[depth];
+    	int num_moves = search_board.generateMoves(CheckersData.BLACK, legalMoves); // jumps only, since jumps are forced
+        for (int i = 0; i < num_moves; i++){
+        	long nextMove = legalMoves[i];
+        	long undo = search_board.makeMove(nextMove);
+        	value = Math.max(quiescence_min(depth + 1, alpha, beta), value);
+        	search_board.unmakeMove(nextMove, undo);
+        	if (search_aborted){
+        		return value;
+        	}
+        	if (value >= beta){ // pruning
+        		return value;
+        	}
+        	alpha = Math.max(alpha, value);
+        }
+        return value;
+    }
+    
+    /**
+     * Quiescence search for the human (RED) player past search_depth_limit, the counterpart of quiescence_max().
+     * 
+     * @param depth       the current search depth
+     * @param alpha       the minimum utility that the agent (BLACK) is assured of
+     * @param beta        the maximum utility that the human (RED) player is assured of
+     * 
+     * @return            the minimum utility value that the human (RED) player can achieve once no jumps are left to make
+     */
+    private double quiescence_min(int depth, double alpha, double beta){
+    	double value = Double.POSITIVE_INFINITY;
+    	if (outOfTime()){
+    		return 0;
+    	}
+    	if (!search_board.hasLegalMove(CheckersData.RED)){
+    		return 1;
+    	}
+    	if (!search_board.hasLegalMove(CheckersData.BLACK)){
+    		return -1;
+    	}
+    	
+    	// stand pat: with no jump to make, or no plies left to extend by, the state is evaluated as it is
+    	if (search_board.jumpers(CheckersData.RED) == 0 || depth >= search_depth_limit + max_quiescence_depth){
+    		return evaluate(search_board);
+    	}
+    	quiescence_nodes++;
+    	
+    	long[] legalMoves = move_buffers[depth];
+    	int num_moves = search_board.generateMoves(CheckersData.RED, legalMoves); // jumps only, since jumps are forced
+        for (int i = 0; i < num_moves; i++){
+        	long nextMove = legalMoves[i];
+        	long undo = search_board.makeMove(nextMove);
+        	value = Math.min(quiescence_max(depth + 1, alpha, beta), value);
+        	search_board.unmakeMove(nextMove, undo);
+        	if (search_aborted){
+        		return value;
+        	}
+        	if (value <= alpha){ // pruning
+        		return value;
+        	}
+        	beta = Math.min(beta, value);
+        }
+        return value;
+    }
+    
+    /**
+     * Counts a visited state and checks the clock and stop_signal every 1024 states, so that the search stops soon after
+     * the deadline or after it is told to. There is no deadline until the first iteration has finished, so that there is
+     * always a move to fall back on.
+     * 
+     * @return  true if the search has run out of time or has been stopped
+     */
+    private boolean outOfTime(){
+    	if ((++nodes & 1023) == 0 && ((completed_depth > 0 && System.nanoTime() - deadline >= 0) || stop_signal.get() || ponder_stop)){
+    		search_aborted = true;
+    	}
+    	return search_aborted;
+    }
+    
+    /**
+     * Checks whether the transposition table entry in tt_entry decides a state without searching it: an exact score always does,
+     * a lower bound does when it is at least beta and an upper bound does when it is at most alpha.
+     * 
+     * @param alpha   the minimum utility that the agent (BLACK) is assured of
+     * @param beta    the maximum utility that the human (RED) player is assured of
+     * 
+     * @return        true if the score of the entry can be returned for the state
+     */
+    private boolean isCutoff(double alpha, double beta){
+    	double score = tt_entry.score;
+    	switch (tt_entry.bound){
+    		case TranspositionTable.EXACT: return true;
+    		case TranspositionTable.LOWER: return score >= beta;
+    		default:                       return score <= alpha;
+    	}
+    }
+    
+    /**
+     * Sorts the moves in the move buffer of a search depth so that the moves most likely to cause a cutoff are searched first.
+     * 
+     * @param depth      the current search depth, whose move buffer is sorted
+     * @param num_moves  number of moves in the buffer
+     * @param ttMove     best move from the transposition table in the CheckersMove code format, 0 for none
+     */
+    private void orderMoves(int depth, int num_moves, long ttMove){
+    	orderMoves(move_buffers[depth], move_scores[depth], num_moves, ttMove, killers[depth], history);
+    }
+    
+    /**
+     * Sorts moves so that the moves most likely to cause a cutoff are searched first: the best move from the transposition
+     * table, then the two killer moves, then the others by their history score. Moves with equal scores keep the order they
+     * were generated in.
+     * 
+     * @param moves      the moves to sort
+     * @param scores     filled in with the ordering score of each move
+     * @param num_moves  number of moves
+     * @param ttMove     best move from the transposition table in the CheckersMove code format, 0 for none
+     * @param killers    the two killer moves of the search depth of the moves
+     * @param history    the history scores
+     */
+    static void orderMoves(long[] moves, int[] scores, int num_moves, long ttMove, long[] killers, int[][] history){
+    	long killer1 = killers[0];
+    	long killer2 = killers[1];
+    	for (int i = 0; i < num_moves; i++){
+    		long move = moves[i];
+    		int score;
+    		if (move == ttMove) score = Integer.MAX_VALUE;
+    		else if (move == killer1) score = Integer.MAX_VALUE - 1;
+    		else if (move == killer2) score = Integer.MAX_VALUE - 2;
+    		else score = history[CheckersMove.fromSquare(move)][CheckersMove.toSquare(move)];
+    		
+    		// insertion sort, which is quick for the few moves a state has
+    		int j = i;
+    		while (j > 0 && scores[j - 1] < score){
+    			moves[j] = moves[j - 1];
+    			scores[j] = scores[j - 1];
+    			j--;
+    		}
+    		moves[j] = move;
+    		scores[j] = score;
+    	}
+    }
+    
+    /**
+     * Remembers a move that caused a cutoff: it becomes the first killer move of its search depth and its history score grows.
+     * 
+     * @param depth   the search depth the cutoff happened at
+     * @param draft   number of plies that were left to search below the state
+     * @param move    the move that caused the cutoff
+     * @param i       the position of the move in the order it was searched in
+     */
+    private void recordCutoff(int depth, int draft, long move, int i){
+    	cutoffs++;
+    	if (i == 0){
+    		first_move_cutoffs++;
+    	}
+    	rememberCutoff(killers[depth], history, draft, move);
+    }
+    
+    /**
+     * Makes a move that caused a cutoff the first killer move of its search depth, and grows its history score.
+     * 
+     * @param killers  the two killer moves of the search depth the cutoff happened at
+     * @param history  the history scores
+     * @param draft    number of plies that were left to search below the state
+     * @param move     the move that caused the cutoff
+     */
+    static void rememberCutoff(long[] killers, int[][] history, int draft, long move){
+    	if (killers[0] != move){
+    		killers[1] = killers[0];
+    		killers[0] = move;
+    	}
+    	int from = CheckersMove.fromSquare(move);
+    	int to = CheckersMove.toSquare(move);
+    	history[from][to] += draft * draft;
+    	if (history[from][to] >= Integer.MAX_VALUE / 2){ // scale every score down rather than let this one overflow into the killer scores
+    		for (int[] row : history){
+    			for (int j = 0; j < 32; j++){
+    				row[j] >>= 1;
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * @param legalMoves  the moves to look in
+     * @param move        a move in the CheckersMove code format
+     * 
+     * @return            the index of the move in legalMoves, -1 if it is not there
+     */
+    static int indexOf(CheckersMove[] legalMoves, long move){
+    	for (int i = 0; i < legalMoves.length; i++){
+    		if (legalMoves[i].toCode() == move){
+    			return i;
+    		}
+    	}
+    	return -1;
+    }
+    
+    /**
+     * @param move    a move of player in the CheckersMove code format, not made yet
+     * @param player  the player to move
+     * 
+     * @return        true if the move neither jumps nor crowns a man, the only kind of move that is reduced or pruned
+     */
+    private boolean isQuiet(long move, int player){
+    	if (CheckersMove.jumpCount(move) > 0){ // jumps are forced, and are never reduced or pruned
+    		return false;
+    	}
+    	int men = player == CheckersData.BLACK ? search_board.blackMen : search_board.redMen;
+    	int kingRow = player == CheckersData.BLACK ? BoardTopology.BLACK_KING_SQUARES : BoardTopology.RED_KING_SQUARES;
+    	return (men & 1 << CheckersMove.fromSquare(move)) == 0 || (kingRow & 1 << CheckersMove.toSquare(move)) == 0;
+    }
+    
+    /**
+     * Evaluates a leaf with improved_utility(), unless the evaluation cache already has it.
+     * 
+     * @param state   a state containing information about the checkers board configuration
+     * 
+     * @return        the evaluated utility value of this state for the agent (BLACK)
+     */
+    private double evaluate(CheckersData state){
+    	eval_probes++;
+    	double score = eval_cache.probe(state.zobrist);
+    	if (!Double.isNaN(score)){ // found
+    		eval_hits++;
+    		return score;
+    	}
+    	score = improved_utility(state);
+    	eval_cache.store(state.zobrist, score);
+    	return score;
+    }
+    
     /**
      * Baseline evaluation function for a non-terminal state that returns the utility value of a state for the agent (BLACK)
      * 
@@ -208,31 +1137,9 @@ public class AlphaBetaSearch extends AdversarialSearch {
      */
     private double baseline_utility(CheckersData state){
 
-    	double score = 0;
-    	
-    	for (int row = 0; row < 8; row++){
-			for (int col = 0; col < 8; col++){
-				if (row % 2 == col % 2) {
-					switch (state.pieceAt(row, col)){
-						// Deduct points for every human (RED) player piece while adding points for every agent (BLACK) piece
-						case CheckersData.RED:
-							score -= normal_piece_value; 
-							break;
-						case CheckersData.BLACK:
-							score += normal_piece_value;
-							break;
-						case CheckersData.RED_KING:
-							score -= king_value;
-							break;
-						case CheckersData.BLACK_KING:
-							score += king_value;
-							break;
-						default:
-							break;
-					}
-				}
-			}
-		}
+    	// Deduct points for every human (RED) player piece while adding points for every agent (BLACK) piece
+    	double score = normal_piece_value * (state.blackMenCount() - state.redMenCount())
+    			+ king_value * (state.blackKingCount() - state.redKingCount());
     	return score/(12 * king_value); // Best possible case is that all agent's (BLACK) piece is a king and no enemy (RED) piece is present
     }
     
@@ -244,85 +1151,35 @@ public class AlphaBetaSearch extends AdversarialSearch {
      * 
      * @return        the evaluated utility value of this state for the agent (BLACK), which is a value between -1 and 1
      */
-    private double improved_utility(CheckersData state){
+    double improved_utility(CheckersData state){
 
-    	double score = 0;
-    	int blackPieces = 0;
-    	int redPieces = 0; 
-    	ArrayList<int[]> redPieceLocation = new ArrayList<int[]>();
-    	ArrayList<int[]> blackKingLocation = new ArrayList<int[]>();
-    	for (int row = 0; row < 8; row++){
-			for (int col = 0; col < 8; col++){
-				if (row % 2 == col % 2) {
-					int[] loc = {-1, -1};
-					switch (state.pieceAt(row, col)){
-						// Deduct points for every human (RED) player piece while adding points for every agent (BLACK) piece
-						case CheckersData.RED:
-							score -= normal_piece_value;
-							redPieces++; 
-							loc[0] = row;
-							loc[1] = col;
-							redPieceLocation.add(loc); 
-							break;
-						case CheckersData.BLACK:
-							score += normal_piece_value;
-							blackPieces++;
-							break;
-						case CheckersData.RED_KING:
-							score -= king_value;
-							redPieces++;
-							loc[0] = row;
-							loc[1] = col;
-							redPieceLocation.add(loc);
-							break;
-						case CheckersData.BLACK_KING:
-							score += king_value;
-							blackPieces++;
-							loc[0] = row;
-							loc[1] = col;
-							blackKingLocation.add(loc); 
-							break;
-						default:
-							break;
-					}
-				}
-			}
-		}
+    	// Deduct points for every human (RED) player piece while adding points for every agent (BLACK) piece
+    	double score = normal_piece_value * (state.blackMenCount() - state.redMenCount())
+    			+ king_value * (state.blackKingCount() - state.redKingCount());
+    	int blackPieces = state.pieceCount(CheckersData.BLACK);
+    	int redPieces = state.pieceCount(CheckersData.RED); 
     	// Do the following following scoring mechanism only if there are more agent (BLACK) pieces than human (RED) pieces and there exists at least one agent (BLACK) king piece.
-    	if (blackPieces > redPieces && blackKingLocation.size() > 0) { 
-    		double minDist;  
-    		double dist = 0;
-    		double distScore = 0; 
-    		for(int i = 0; i < blackKingLocation.size(); i++) {
-    			int[] black_king_loc = blackKingLocation.get(i);
-    			minDist = 100; 
-    			for(int j = 0; j < redPieceLocation.size(); j++) {
-    				dist = ManhattanDistance(black_king_loc, redPieceLocation.get(j)); 
-    				if(dist < minDist) {
-    					minDist = dist; 
+    	if (blackPieces > redPieces && state.blackKingCount() > 0) { 
+    		int redPieceSet = state.redMen | state.redKings;
+    		// Kings in ascending order of square, so that the terms are added in the same order as always
+    		for (int kings = state.blackKings; kings != 0; kings &= kings - 1) {
+    			int king = Integer.numberOfTrailingZeros(kings);
+    			// The closest enemy piece is in the first ring around the king that has one; with none at all the distance is 100
+    			int minDist = 100;
+    			for (int ring = 1; ring < BoardTopology.DISTANCE_RINGS; ring++) {
+    				if ((BoardTopology.DISTANCE_RING[king][ring] & redPieceSet) != 0) {
+    					minDist = 2 * ring;
+    					break;
     				}
     			}
     			// The smaller the distance between the agent's king piece with its closest enemy piece, the greater the distance score, which encourages the agent's king piece to be more aggressive in 
     			// closing up the distance with its enemies when the agent has more pieces on the board. 
-    			distScore = (1.0 / minDist); 
-    			score += distScore;  
+    			score += 1.0 / minDist;  
     		}
     	}
     	return score/(12 * king_value); // Best possible case is that all agent's (BLACK) piece is a king and no enemy (RED) piece is present
     }
     
-    /**
-     * Computes the Manhattan distance between two checker pieces
-     * 
-     * @param loc1  an array containing the row and column index
-     * @param loc2  another array containing the row and column index
-     * 
-     * @return      the Manhattan distance given the two coordinates
-     */
-    private double ManhattanDistance(int[] loc1, int[] loc2) {
-    	return Math.abs(loc2[0] - loc1[0]) + Math.abs(loc2[1] - loc1[1]); 
-    }
-    
     
     
 }
@@ -0,0 +1,82 @@
+package edu.iastate.cs472.proj2;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Precomputed lookup tables describing the 32 playable squares of the board
+ * (the squares with row % 2 == col % 2), so that move generation, evaluation
+ * and playouts index an array instead of doing row and column arithmetic and
+ * bounds checks. Squares are numbered 0..31 in row-major order, as in
+ * CheckersData.squareIndex, and directions are CheckersData.DOWN_LEFT to
+ * CheckersData.UP_RIGHT. Entries that would fall off the board are -1.
+ */
+public final class BoardTopology {
+	
+	static final int[] ROW = new int[32]; // row of each square
+	
+	static final int[] COL = new int[32]; // column of each square
+	
+	static final int[] SQUARE = new int[64]; // SQUARE[row * 8 + col] is the square at (row, col), -1 for the unplayable squares
+	
+	static final int[][] NEIGHBOR = new int[4][32]; // NEIGHBOR[dir][s] is the square one diagonal step from s in direction dir
+	
+	static final int[][] JUMP_LANDING = new int[4][32]; // JUMP_LANDING[dir][s] is the square a piece on s lands on when jumping in direction dir
+	
+	static final int[][] JUMPED = new int[4][32]; // JUMPED[dir][s] is the square jumped over by that jump, -1 when the jump leaves the board
+	
+	static final int RED_KING_SQUARES = 0x0000000F; // squares of row 0
+	
+	static final int BLACK_KING_SQUARES = 0xF0000000; // squares of row 7
+	
+	static final int DISTANCE_RINGS = 8; // playable squares are an even Manhattan distance apart, from 0 to 14
+	
+	static final int[][] DISTANCE_RING = new int[32][DISTANCE_RINGS]; // DISTANCE_RING[s][d] is the set of squares at Manhattan distance 2 * d from s
+	
+	static {
+		int[][] dirs = { CheckersData.DIR1, CheckersData.DIR2, CheckersData.DIR3, CheckersData.DIR4 };
+		
+		for (int i = 0; i < 64; i++) {
+			SQUARE[i] = -1;
+		}
+		for (int square = 0; square < 32; square++) {
+			int row = square >> 2;
+			int col = ((square & 3) << 1) | (row & 1);
+			ROW[square] = row;
+			COL[square] = col;
+			SQUARE[row * 8 + col] = square;
+		}
+		for (int dir = 0; dir < 4; dir++) {
+			for (int square = 0; square < 32; square++) {
+				int row = ROW[square] + dirs[dir][0];
+				int col = COL[square] + dirs[dir][1];
+				NEIGHBOR[dir][square] = onBoard(row, col) ? SQUARE[row * 8 + col] : -1;
+				
+				int landingRow = ROW[square] + 2 * dirs[dir][0];
+				int landingCol = COL[square] + 2 * dirs[dir][1];
+				if (onBoard(landingRow, landingCol)) {
+					JUMP_LANDING[dir][square] = SQUARE[landingRow * 8 + landingCol];
+					JUMPED[dir][square] = NEIGHBOR[dir][square];
+				}
+				else {
+					JUMP_LANDING[dir][square] = -1;
+					JUMPED[dir][square] = -1;
+				}
+			}
+		}
+		for (int from = 0; from < 32; from++) {
+			for (int to = 0; to < 32; to++) {
+				DISTANCE_RING[from][(Math.abs(ROW[to] - ROW[from]) + Math.abs(COL[to] - COL[from])) / 2] |= 1 << to;
+			}
+		}
+	}
+	
+	private BoardTopology() {
+	}
+	
+	/**
+	 * @return true if the given row and column index is inside the 8 by 8 board
+	 */
+	private static boolean onBoard(int row, int col) {
+		return row >= 0 && row < 8 && col >= 0 && col < 8;
+	}
+}
@@ -6,6 +6,8 @@ import java.awt.event.*;
 
 import javax.swing.*;
 
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.InputMismatchException;
 //Scanner for the external input.
@@ -37,6 +39,8 @@ public class Checkers extends JPanel {
      */
 	//AIKEY
 	static int aiKey = 0;
+	//File the statistics of every move of the agent are appended to, one line of JSON per move
+	static final String SEARCH_STATS_LOG = "searchstats.jsonl";
 	//To demonstrate previous board
     static boolean chengeValue = false;
     
@@ -152,15 +156,7 @@ public class Checkers extends JPanel {
     	private CheckersData copyBoard(CheckersData board)
         {
             this.preBoard = board;
-            CheckersData new_board = new CheckersData();
-            for(int i=0; i<board.board.length;i++)
-            {
-                for(int j=0;j<8;j++)
-                {
-                    new_board.board[i][j]=board.pieceAt(i, j);
-                }
-            }
-            return new_board;
+            return board.cloneData(); // also copies the bitboards
         }
     	
     	public void paintComponent(Graphics g) {
@@ -267,6 +263,8 @@ public class Checkers extends JPanel {
     		boolean done = false;
     		player_1 = new AlphaBetaSearch();
         	player_2 = new MonteCarloTreeSearch();
+        	player_1.use_ponder = true; // search on the human's time
+        	player_2.use_ponder = true;
             while (!done) {
                 try {
                 	int aikey = stdin.nextInt();
@@ -359,6 +357,8 @@ public class Checkers extends JPanel {
             newGameButton.setEnabled(true);
             resignButton.setEnabled(false);
             gameInProgress = false;
+            player_1.stopPondering(); // nothing left to think about
+            player_2.stopPondering();
             //Previous state
             premessage.setText("Game is done");
             if(!resign) {
@@ -423,6 +423,21 @@ public class Checkers extends JPanel {
          * move.  Make the move, and then either end or continue the game
          * appropriately.
          */
+        /**
+         * Prints the statistics of the agent's move and appends them, as a
+         * line of JSON, to the file SEARCH_STATS_LOG.
+         */
+        void logSearchStats(SearchStats stats) {
+            String line = stats.toJson();
+            System.out.println(line);
+            try (FileWriter out = new FileWriter(SEARCH_STATS_LOG, true)) {
+                out.write(line + System.lineSeparator());
+            }
+            catch (IOException e) {
+                System.err.println("Could not write " + SEARCH_STATS_LOG + ": " + e.getMessage());
+            }
+        }
+        
         void doMakeMove(CheckersMove move) {	
             board.makeMove(move);
             agentBoard=copyBoard(board);
@@ -449,13 +464,16 @@ public class Checkers extends JPanel {
                 player_2.setCheckersData(board);
                 long startTime = 0;
                 long endTime = 0; 
+                AdversarialSearch agent = null; // the player that made the move
                 switch(aiKey){
                 case 1: 
+                	agent = player_1;
                 	startTime = System.currentTimeMillis();
                 	moveAI = player_1.makeMove(legalMoves); 
                 	endTime = System.currentTimeMillis();
                 	break;
                 case 2: 
+                	agent = player_2;
                 	startTime = System.currentTimeMillis();
                 	moveAI = player_2.makeMove(legalMoves); 
                 	endTime = System.currentTimeMillis();
@@ -464,12 +482,16 @@ public class Checkers extends JPanel {
                 	Random rand = new Random();
                 	startTime = System.currentTimeMillis();
             		if(rand.nextInt(2) == 1)
-            			moveAI = player_1.makeMove(legalMoves); 
+            			agent = player_1;
             		else
-            			moveAI = player_2.makeMove(legalMoves); 
+            			agent = player_2;
+            		moveAI = agent.makeMove(legalMoves); 
             		endTime = System.currentTimeMillis();
                 }
                 System.out.println("Agent took " + (endTime - startTime) + " milliseconds to compute one action");
+                if (agent != null && agent.getSearchStats() != null) {
+                	logSearchStats(agent.getSearchStats());
+                }
                 System.out.println("---------------------------------------------");
                 totalTime += (endTime - startTime); 
                 totalMoves++; 
@@ -605,15 +627,7 @@ public class Checkers extends JPanel {
         private CheckersData copyBoard(CheckersData board)
         {
             this.board = board;
-            CheckersData new_board = new CheckersData();
-            for(int i=0; i<board.board.length;i++)
-            {
-                for(int j=0;j<8;j++)
-                {
-                    new_board.board[i][j]=board.pieceAt(i, j);
-                }
-            }
-            return new_board;
+            return board.cloneData(); // also copies the bitboards
         }
         /**
          * Respond to a user click on the board.  If no game is in progress, show
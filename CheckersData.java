@@ -20,9 +20,69 @@ public class CheckersData {
 	 */
 
 	static final int EMPTY = 0, RED = 1, RED_KING = 2, BLACK = 3, BLACK_KING = 4;
+	
+	/*
+	 * Capacity of a move buffer passed to generateMoves(). Twelve kings have at most 48
+	 * single moves, and positions with anywhere near this many jump sequences do not
+	 * arise in play.
+	 */
+	static final int MAX_MOVES = 128;
 
 	int[][] board; // board[r][c] is the contents of row r, column c.
 
+	/*
+	 * Bitboard view of the same position. The 32 playable squares (row % 2 == col % 2)
+	 * are numbered 0..31 in row-major order, so square = row * 4 + col / 2, and bit i
+	 * of each set is on when square i holds that kind of piece. The sets are kept in
+	 * sync with board by setUpGame(), setBoard() and makeMove().
+	 */
+	int redMen, redKings, blackMen, blackKings;
+
+	/*
+	 * Zobrist hash of the pieces on the board: the XOR of PIECE_KEYS[piece][square] over
+	 * every occupied square. It is updated incrementally whenever a piece is placed or
+	 * removed, and zobristKey() adds the side to move.
+	 */
+	long zobrist;
+
+	/*
+	 * Random keys for the Zobrist hash. They come from a fixed seed so that keys are the
+	 * same in every run and can be stored in files.
+	 */
+	static final long[][] PIECE_KEYS = new long[5][32]; // indexed by piece (RED .. BLACK_KING) and square
+	static final long BLACK_TO_MOVE_KEY;
+
+	static {
+		long seed = 0x2545F4914F6CDD1DL;
+		for (int piece = RED; piece <= BLACK_KING; piece++) {
+			for (int square = 0; square < 32; square++) {
+				seed += 0x9E3779B97F4A7C15L;
+				PIECE_KEYS[piece][square] = mix64(seed);
+			}
+		}
+		seed += 0x9E3779B97F4A7C15L;
+		BLACK_TO_MOVE_KEY = mix64(seed);
+	}
+
+	/**
+	 * SplitMix64 finalizer, used to turn a counter into well-spread random keys.
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/*
+	 * Masks used to shift a whole set of squares one step diagonally. On even rows the
+	 * playable squares are in columns 0, 2, 4, 6 and on odd rows in columns 1, 3, 5, 7,
+	 * so the index offset of a diagonal step depends on the parity of the row.
+	 */
+	static final int EVEN_ROWS = 0x0F0F0F0F; // squares on rows 0, 2, 4 and 6
+	static final int ODD_ROWS = 0xF0F0F0F0; // squares on rows 1, 3, 5 and 7
+	static final int EVEN_ROWS_NOT_LEFT = 0x0E0E0E0E; // even-row squares not in column 0
+	static final int ODD_ROWS_NOT_RIGHT = 0x70707070; // odd-row squares not in column 7
+
 	/**
 	 * Constructor. Create the board and set it up for a new game.
 	 */
@@ -30,6 +90,21 @@ public class CheckersData {
 		board = new int[8][8];
 		setUpGame();
 	}
+	
+	/**
+	 * Copy constructor, used by cloneData(). Copies the position without setting up a
+	 * new game first.
+	 */
+	private CheckersData(CheckersData other) {
+		board = new int[8][8];
+		copyFrom(other);
+	}
+	
+	/*
+	 * The undo record returned by makeMove(long) holds the set of captured squares
+	 * that held kings in its low 32 bits, plus this flag when the moving man was crowned.
+	 */
+	static final long UNDO_PROMOTED = 1L << 32;
 
 	public static final String ANSI_RESET = "\u001B[0m";
 	public static final String ANSI_RED = "\u001B[31m";
@@ -38,6 +113,9 @@ public class CheckersData {
 	public static final int[] DIR2 = { 1, 1 }; // Move bottom right
 	public static final int[] DIR3 = { -1, -1 }; // Move top left
 	public static final int[] DIR4 = { -1, 1 }; // Move top right
+	
+	// The directions above as indices, in the same order, for the bitboard shifts
+	static final int DOWN_LEFT = 0, DOWN_RIGHT = 1, UP_LEFT = 2, UP_RIGHT = 3;
 
 	@Override
 	public String toString() {
@@ -102,6 +180,46 @@ public class CheckersData {
 			}
 		}
 
+		blackMen = 0x00000FFF; // squares 0..11, the first three rows
+		redMen = 0xFFF00000; // squares 20..31, the last three rows
+		blackKings = 0;
+		redKings = 0;
+		zobrist = computeZobrist();
+	}
+	
+	/**
+	 * Key identifying this position with the given player to move. Every part of the
+	 * program that caches results by position (search, book, tablebase) uses this key.
+	 * 
+	 * @param player  the player to move, RED or BLACK
+	 * 
+	 * @return        64-bit Zobrist key of the position
+	 */
+	long zobristKey(int player) {
+		return player == BLACK ? zobrist ^ BLACK_TO_MOVE_KEY : zobrist;
+	}
+	
+	/**
+	 * Compute the Zobrist hash of the pieces from scratch.
+	 */
+	long computeZobrist() {
+		long hash = 0;
+		hash ^= hashOf(redMen, RED);
+		hash ^= hashOf(redKings, RED_KING);
+		hash ^= hashOf(blackMen, BLACK);
+		hash ^= hashOf(blackKings, BLACK_KING);
+		return hash;
+	}
+	
+	/**
+	 * @return the XOR of the keys of the given piece on every square of the set
+	 */
+	private static long hashOf(int squares, int piece) {
+		long hash = 0;
+		for (int bits = squares; bits != 0; bits &= bits - 1) {
+			hash ^= PIECE_KEYS[piece][Integer.numberOfTrailingZeros(bits)];
+		}
+		return hash;
 	}
 
 	/**
@@ -124,12 +242,158 @@ public class CheckersData {
 			makeMove(move.rows.get(i), move.cols.get(i), move.rows.get(i + 1), move.cols.get(i + 1));
 	}
 	
+	/**
+	 * Make the move packed in the given code, as produced by generateMoves(). It is
+	 * assumed that the move is legal. The whole move is made at once: the piece goes
+	 * straight to its last square and every captured piece is removed. The returned
+	 * undo record lets unmakeMove() take the move back, so a search can play and
+	 * take back moves on a single board instead of copying it at every node.
+	 * 
+	 * @param move packed move code, see CheckersMove
+	 * 
+	 * @return     undo record for unmakeMove(): the captured kings, and UNDO_PROMOTED if the piece was crowned
+	 */
+	long makeMove(long move) {
+		int from = CheckersMove.fromSquare(move);
+		int to = CheckersMove.toSquare(move);
+		int captured = CheckersMove.capturedSquares(move);
+		int piece = board[squareRow(from)][squareCol(from)];
+		long undo = 0;
+
+		if (captured != 0) {
+			undo = (captured & (redKings | blackKings)) & 0xFFFFFFFFL;
+			redMen &= ~captured;
+			redKings &= ~captured;
+			blackMen &= ~captured;
+			blackKings &= ~captured;
+			for (int bits = captured; bits != 0; bits &= bits - 1) {
+				int square = Integer.numberOfTrailingZeros(bits);
+				zobrist ^= PIECE_KEYS[board[squareRow(square)][squareCol(square)]][square];
+				board[squareRow(square)][squareCol(square)] = EMPTY;
+			}
+		}
+
+		if (piece == RED && (BoardTopology.RED_KING_SQUARES & (1 << to)) != 0) {
+			piece = RED_KING;
+			undo |= UNDO_PROMOTED;
+		}
+		else if (piece == BLACK && (BoardTopology.BLACK_KING_SQUARES & (1 << to)) != 0) {
+			piece = BLACK_KING;
+			undo |= UNDO_PROMOTED;
+		}
+
+		removePiece(from, board[squareRow(from)][squareCol(from)]);
+		board[squareRow(from)][squareCol(from)] = EMPTY;
+		placePiece(to, piece);
+		board[squareRow(to)][squareCol(to)] = piece;
+		return undo;
+	}
+	
+	/**
+	 * Take back a move made with makeMove(long), restoring the board exactly as it was.
+	 * 
+	 * @param move  the packed move code that was made
+	 * @param undo  the undo record makeMove(long) returned for it
+	 */
+	void unmakeMove(long move, long undo) {
+		int from = CheckersMove.fromSquare(move);
+		int to = CheckersMove.toSquare(move);
+		int captured = CheckersMove.capturedSquares(move);
+		int piece = board[squareRow(to)][squareCol(to)];
+
+		if ((undo & UNDO_PROMOTED) != 0) {
+			piece = piece == RED_KING ? RED : BLACK;
+		}
+
+		removePiece(to, board[squareRow(to)][squareCol(to)]);
+		board[squareRow(to)][squareCol(to)] = EMPTY;
+		placePiece(from, piece);
+		board[squareRow(from)][squareCol(from)] = piece;
+
+		if (captured != 0) {
+			int kings = (int) undo;
+			int men = captured & ~kings;
+			boolean redMoved = piece == RED || piece == RED_KING;
+			if (redMoved) {
+				blackMen |= men;
+				blackKings |= kings;
+			}
+			else {
+				redMen |= men;
+				redKings |= kings;
+			}
+			for (int bits = captured; bits != 0; bits &= bits - 1) {
+				int square = Integer.numberOfTrailingZeros(bits);
+				boolean king = (kings & (1 << square)) != 0;
+				int restored;
+				if (redMoved) {
+					restored = king ? BLACK_KING : BLACK;
+				}
+				else {
+					restored = king ? RED_KING : RED;
+				}
+				board[squareRow(square)][squareCol(square)] = restored;
+				zobrist ^= PIECE_KEYS[restored][square];
+			}
+		}
+	}
+	
 	/**
 	 * Set the board to be the given board
 	 * @param board 8 by 8 board
 	 */
 	void setBoard(int[][] board) {
 		this.board = board;
+		syncBitboards();
+	}
+	
+	/**
+	 * Set up the position given by the four bitboards, rebuilding board and the
+	 * Zobrist hash from them. The sets must not overlap.
+	 */
+	void setPieces(int redMen, int redKings, int blackMen, int blackKings) {
+		for (int square = 0; square < 32; square++) {
+			board[squareRow(square)][squareCol(square)] = EMPTY;
+		}
+		this.redMen = 0;
+		this.redKings = 0;
+		this.blackMen = 0;
+		this.blackKings = 0;
+		zobrist = 0;
+		for (int bits = redMen; bits != 0; bits &= bits - 1) {
+			setPiece(Integer.numberOfTrailingZeros(bits), RED);
+		}
+		for (int bits = redKings; bits != 0; bits &= bits - 1) {
+			setPiece(Integer.numberOfTrailingZeros(bits), RED_KING);
+		}
+		for (int bits = blackMen; bits != 0; bits &= bits - 1) {
+			setPiece(Integer.numberOfTrailingZeros(bits), BLACK);
+		}
+		for (int bits = blackKings; bits != 0; bits &= bits - 1) {
+			setPiece(Integer.numberOfTrailingZeros(bits), BLACK_KING);
+		}
+	}
+	
+	/**
+	 * Put a piece on an empty square, in board as well as in the bitboards and hash.
+	 */
+	private void setPiece(int square, int piece) {
+		board[squareRow(square)][squareCol(square)] = piece;
+		placePiece(square, piece);
+	}
+	
+	/**
+	 * Rebuild the bitboards from the contents of board.
+	 */
+	void syncBitboards() {
+		redMen = 0;
+		redKings = 0;
+		blackMen = 0;
+		blackKings = 0;
+		zobrist = 0;
+		for (int square = 0; square < 32; square++) {
+			placePiece(square, board[squareRow(square)][squareCol(square)]);
+		}
 	}
 
 	/**
@@ -157,6 +421,7 @@ public class CheckersData {
 		if (Math.abs(col_diff) == 2 && Math.abs(col_diff) == 2) { // A jump
 			int enemy_row = fromRow + (row_diff / 2);
 			int enemy_col = fromCol + (col_diff / 2);
+			removePiece(squareIndex(enemy_row, enemy_col), board[enemy_row][enemy_col]);
 			board[enemy_row][enemy_col] = EMPTY;
 		}
 
@@ -171,6 +436,135 @@ public class CheckersData {
 			board[toRow][toCol] = BLACK_KING;
 		}
 
+		removePiece(squareIndex(fromRow, fromCol), player);
+		placePiece(squareIndex(toRow, toCol), board[toRow][toCol]);
+	}
+	
+	/**
+	 * @return the index 0..31 of the playable square at the given row and column
+	 */
+	static int squareIndex(int row, int col) {
+		return BoardTopology.SQUARE[row * 8 + col];
+	}
+	
+	/**
+	 * @return the row of the playable square with the given index
+	 */
+	static int squareRow(int square) {
+		return BoardTopology.ROW[square];
+	}
+	
+	/**
+	 * @return the column of the playable square with the given index
+	 */
+	static int squareCol(int square) {
+		return BoardTopology.COL[square];
+	}
+	
+	/**
+	 * Remove the given piece on the given square from the bitboards and the Zobrist
+	 * hash. EMPTY is ignored.
+	 */
+	private void removePiece(int square, int piece) {
+		if (piece == EMPTY) {
+			return;
+		}
+		int keep = ~(1 << square);
+		redMen &= keep;
+		redKings &= keep;
+		blackMen &= keep;
+		blackKings &= keep;
+		zobrist ^= PIECE_KEYS[piece][square];
+	}
+	
+	/**
+	 * Add the given piece on the given square to the bitboards and the Zobrist hash.
+	 * EMPTY is ignored.
+	 */
+	private void placePiece(int square, int piece) {
+		if (piece == EMPTY) {
+			return;
+		}
+		int bit = 1 << square;
+		zobrist ^= PIECE_KEYS[piece][square];
+		switch (piece) {
+			case RED:
+				redMen |= bit;
+				break;
+			case RED_KING:
+				redKings |= bit;
+				break;
+			case BLACK:
+				blackMen |= bit;
+				break;
+			case BLACK_KING:
+				blackKings |= bit;
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * @return the set of squares that hold no piece
+	 */
+	int emptySquares() {
+		return ~(redMen | redKings | blackMen | blackKings);
+	}
+	
+	/**
+	 * Shift every square in the set one step in the given direction. Squares whose
+	 * step would leave the board are dropped.
+	 * 
+	 * @param bits  a set of squares
+	 * @param dir   DOWN_LEFT, DOWN_RIGHT, UP_LEFT or UP_RIGHT
+	 * 
+	 * @return      the set of squares one diagonal step away in that direction
+	 */
+	static int shift(int bits, int dir) {
+		switch (dir) {
+			case DOWN_LEFT:
+				return ((bits & EVEN_ROWS_NOT_LEFT) << 3) | ((bits & ODD_ROWS) << 4);
+			case DOWN_RIGHT:
+				return ((bits & EVEN_ROWS) << 4) | ((bits & ODD_ROWS_NOT_RIGHT) << 5);
+			case UP_LEFT:
+				return ((bits & EVEN_ROWS_NOT_LEFT) >>> 5) | ((bits & ODD_ROWS) >>> 4);
+			default: // UP_RIGHT
+				return ((bits & EVEN_ROWS) >>> 4) | ((bits & ODD_ROWS_NOT_RIGHT) >>> 3);
+		}
+	}
+	
+	/**
+	 * @return the direction opposite to the given one
+	 */
+	static int opposite(int dir) {
+		return 3 - dir;
+	}
+	
+	/**
+	 * @return the set of squares holding a piece of the given player that can move in
+	 *         the given direction, men only moving forward
+	 */
+	int piecesMovingIn(int player, int dir) {
+		boolean down = dir == DOWN_LEFT || dir == DOWN_RIGHT;
+		if (player == RED) {
+			return down ? redKings : redMen | redKings;
+		}
+		return down ? blackMen | blackKings : blackKings;
+	}
+	
+	/**
+	 * @return the set of squares from which the given player has at least one jump
+	 */
+	int jumpers(int player) {
+		int empty = emptySquares();
+		int enemies = player == RED ? blackMen | blackKings : redMen | redKings;
+		int jumpers = 0;
+		for (int dir = DOWN_LEFT; dir <= UP_RIGHT; dir++) {
+			int back = opposite(dir);
+			jumpers |= shift(shift(empty, back) & enemies, back) & piecesMovingIn(player, dir);
+		}
+		return jumpers;
 	}
 
 	/**
@@ -184,91 +578,55 @@ public class CheckersData {
 	 * @param player color of the player, RED or BLACK
 	 */
 	CheckersMove[] getLegalMoves(int player) {
-		ArrayList<CheckersMove> moves = new ArrayList<>();
+		if (player != RED && player != BLACK) {
+			return null;
+		}
 		
-		int king;
+		ArrayList<CheckersMove> moves = new ArrayList<>();
 		
-		if (player == RED) {
-			king = RED_KING;
-		} else {
-			king = BLACK_KING;
-		}
-
-		boolean hasJump = false;
-		for (int row = 0; row < board.length; row++) {
-			for (int col = 0; col < board[row].length; col++) {
-				CheckersMove[] actions;
-				if (pieceAt(row, col) == king) { // kings can move in either direction
-					actions = getLegalJumpsFrom(king, row, col); 
-					// There is a jump
-					if(actions != null) {
-						if(!hasJump) {
-							moves.clear(); //Remove all previous regular moves the first time a jump move is discovered
-						}
-						hasJump = true; //Switch to include only jump moves
-						for(CheckersMove m: actions) {
-							moves.add(m); // Add every possible jump to our legal moves list
-						}
-					}
-					// No jump actions available
-					else {
-						// No jump moves have been discovered yet, proceed with adding regular moves
-						if(!hasJump) {
-							// Try all possible directions
-							CheckersMove[] actions_list = {
-									step(row, col, DIR1),
-									step(row, col, DIR2),
-									step(row, col, DIR3),
-									step(row, col, DIR4)
-							};
-							
-							// Add only non-null moves
-							for(CheckersMove m: actions_list) {
-								if(m != null) {
-									moves.add(m);
-								}
-							}
-						}
-					}
-				} 
-				else if (pieceAt(row, col) == player) { // normal pieces can only move forward
-					actions = getLegalJumpsFrom(player, row, col);
-					if(actions != null) {
-						if(!hasJump) {
-							moves.clear(); //Remove all previous regular moves the first time a jump move is discovered
-						}
-						hasJump = true; //Switch to include only jump moves
-						for(CheckersMove m: actions) {
-							moves.add(m); // Add every possible jump to our legal moves list
-						}
-					}
-					// No jump actions available
-					else {
-						// No jump moves have been discovered yet, proceed with adding regular moves
-						if(!hasJump) {
-							CheckersMove[] actions_list = new CheckersMove[2]; 
-							// RED normal pieces can only move upwards the board
-							if(player == RED) {
-								actions_list[0] = step(row, col, DIR3); 
-								actions_list[1] = step(row, col, DIR4); 
-							}
-							// BLACK normal pieces can only move downwards the board
-							else {
-								actions_list[0] = step(row, col, DIR1); 
-								actions_list[1] = step(row, col, DIR2); 
-							}
-							
-							// Add only non-null moves
-							for(CheckersMove m: actions_list) {
-								if(m != null) {
-									moves.add(m);
-								}
-							}
-						}
+		// If the player can jump, only jumps are legal, so expand the jump candidates found by shifting the bitboards
+		int jumpers = jumpers(player);
+		if (jumpers != 0) {
+			for (int bits = jumpers; bits != 0; bits &= bits - 1) {
+				int square = Integer.numberOfTrailingZeros(bits);
+				int row = squareRow(square);
+				int col = squareCol(square);
+				CheckersMove[] actions = getLegalJumpsFrom(pieceAt(row, col), row, col);
+				if (actions != null) {
+					for (CheckersMove m : actions) {
+						moves.add(m); // Add every possible jump to our legal moves list
 					}
 				}
 			}
 		}
+		// Otherwise find, for each direction, the pieces whose neighbouring square in that direction is empty
+		else {
+			int empty = emptySquares();
+			int downLeft = shift(empty, UP_RIGHT) & piecesMovingIn(player, DOWN_LEFT);
+			int downRight = shift(empty, UP_LEFT) & piecesMovingIn(player, DOWN_RIGHT);
+			int upLeft = shift(empty, DOWN_RIGHT) & piecesMovingIn(player, UP_LEFT);
+			int upRight = shift(empty, DOWN_LEFT) & piecesMovingIn(player, UP_RIGHT);
+			
+			// Visit the movable pieces in row-major order, trying the directions in the order DIR1 to DIR4
+			for (int bits = downLeft | downRight | upLeft | upRight; bits != 0; bits &= bits - 1) {
+				int bit = bits & -bits;
+				int square = Integer.numberOfTrailingZeros(bit);
+				int row = squareRow(square);
+				int col = squareCol(square);
+				if ((downLeft & bit) != 0) {
+					moves.add(new CheckersMove(row, col, row + DIR1[0], col + DIR1[1]));
+				}
+				if ((downRight & bit) != 0) {
+					moves.add(new CheckersMove(row, col, row + DIR2[0], col + DIR2[1]));
+				}
+				if ((upLeft & bit) != 0) {
+					moves.add(new CheckersMove(row, col, row + DIR3[0], col + DIR3[1]));
+				}
+				if ((upRight & bit) != 0) {
+					moves.add(new CheckersMove(row, col, row + DIR4[0], col + DIR4[1]));
+				}
+			}
+		}
 		
 		// No regular moves or jumps are found
 		if(moves.size() == 0) {
@@ -280,34 +638,141 @@ public class CheckersData {
 	}
 
 	/**
-	 * Return the action of moving the piece at the given row and column index in the specified direction
+	 * Check whether the specified player has any legal move, without generating the
+	 * moves. This is the cheap terminal test for the searches: it looks for a single
+	 * piece that can step or jump and returns as soon as it finds one.
+	 * 
+	 * @param player  color of the player, RED or BLACK
+	 * 
+	 * @return        true if the player has at least one legal move
+	 */
+	boolean hasLegalMove(int player) {
+		int empty = emptySquares();
+		for (int dir = DOWN_LEFT; dir <= UP_RIGHT; dir++) {
+			if ((shift(empty, opposite(dir)) & piecesMovingIn(player, dir)) != 0) {
+				return true;
+			}
+		}
+		// No piece can step, so the player can move only if some piece can jump
+		return jumpers(player) != 0;
+	}
+	
+	/**
+	 * Allocation-free counterpart of getLegalMoves(). Write all the legal moves for the
+	 * specified player into the given buffer as packed move codes (see CheckersMove)
+	 * and return how many were written. As with getLegalMoves(), the moves are all
+	 * jumps if the player can jump, and each jump move is a sequence of jumps that
+	 * cannot be continued.
 	 * 
-	 * @param row  row index
-	 * @param col  column index 
-	 * @param dir  direction in the form of array of size two. E.g [1, 1] means adding 1 to the row and adding 1 to the column, which means moving the piece to the bottom right
+	 * @param player  color of the player, RED or BLACK
+	 * @param moves   buffer of at least MAX_MOVES entries, owned by the caller
 	 * 
-	 * @return     the action of moving the piece at the given row and column index in the specified direction
+	 * @return        the number of moves written to the start of the buffer, 0 if the player cannot move
 	 */
-	CheckersMove step(int row, int col, int[] dir) {
-		CheckersMove m = null;
-		if(!outOfBounds(row + dir[0], col + dir[1])) {
-			if(pieceAt(row + dir[0], col + dir[1]) == EMPTY) { // Check if the place we want to move the piece to is EMPTY or not
-				m = new CheckersMove(row, col, row + dir[0], col + dir[1]); 
+	int generateMoves(int player, long[] moves) {
+		int count = 0;
+		int jumpers = jumpers(player);
+		if (jumpers != 0) {
+			int kings = player == RED ? redKings : blackKings;
+			int king = player == RED ? RED_KING : BLACK_KING;
+			for (int bits = jumpers; bits != 0; bits &= bits - 1) {
+				int square = Integer.numberOfTrailingZeros(bits);
+				count = addJumpsFrom((kings & (1 << square)) != 0 ? king : player, square, moves, count);
+			}
+		}
+		else {
+			int empty = emptySquares();
+			int downLeft = shift(empty, UP_RIGHT) & piecesMovingIn(player, DOWN_LEFT);
+			int downRight = shift(empty, UP_LEFT) & piecesMovingIn(player, DOWN_RIGHT);
+			int upLeft = shift(empty, DOWN_RIGHT) & piecesMovingIn(player, UP_LEFT);
+			int upRight = shift(empty, DOWN_LEFT) & piecesMovingIn(player, UP_RIGHT);
+			for (int bits = downLeft | downRight | upLeft | upRight; bits != 0; bits &= bits - 1) {
+				int bit = bits & -bits;
+				int square = Integer.numberOfTrailingZeros(bit);
+				if ((downLeft & bit) != 0) {
+					moves[count++] = CheckersMove.encodeStep(square, BoardTopology.NEIGHBOR[DOWN_LEFT][square]);
+				}
+				if ((downRight & bit) != 0) {
+					moves[count++] = CheckersMove.encodeStep(square, BoardTopology.NEIGHBOR[DOWN_RIGHT][square]);
+				}
+				if ((upLeft & bit) != 0) {
+					moves[count++] = CheckersMove.encodeStep(square, BoardTopology.NEIGHBOR[UP_LEFT][square]);
+				}
+				if ((upRight & bit) != 0) {
+					moves[count++] = CheckersMove.encodeStep(square, BoardTopology.NEIGHBOR[UP_RIGHT][square]);
+				}
 			}
 		}
-		return m;
+		return count;
+	}
+	
+	/**
+	 * Write every complete jump sequence of the given piece from the given square into
+	 * the buffer. Only sequences that cannot be continued are written, so each is a
+	 * legal move and no move is a prefix of another.
+	 * 
+	 * @param piece   the piece on the square: RED, RED_KING, BLACK or BLACK_KING
+	 * @param square  the square the piece is on
+	 * @param moves   buffer to write the jump moves to
+	 * @param count   number of moves in the buffer so far
+	 * 
+	 * @return        number of moves in the buffer afterwards
+	 */
+	private int addJumpsFrom(int piece, int square, long[] moves, int count) {
+		int firstDir = DOWN_LEFT;
+		int lastDir = UP_RIGHT;
+		if (piece == RED) { // men only jump forward
+			firstDir = UP_LEFT;
+		}
+		else if (piece == BLACK) {
+			lastDir = DOWN_RIGHT;
+		}
+		int enemies = piece == RED || piece == RED_KING ? blackMen | blackKings : redMen | redKings;
+		// The moving piece leaves its square, so it may land there again later in the sequence
+		int empty = emptySquares() | (1 << square);
+		return addJumps(square, square, 0, 0, firstDir, lastDir, enemies, 0, empty, moves, count);
 	}
 	
 	/**
-	 * Checks whether the given row and column index is out of bounds of the 8 by 8 board.
+	 * Depth-first search of the jump sequences continuing from the given square. A
+	 * sequence is written to the buffer only when it cannot be continued, so each
+	 * partial sequence is visited once and no list of earlier sequences is searched. The board
+	 * itself is not modified; the pieces captured so far are kept in a set instead,
+	 * which also stops a piece from being jumped twice.
 	 * 
-	 * @param row  row index
-	 * @param col  column index
+	 * @param from      square the moving piece started on
+	 * @param square    square the moving piece has reached
+	 * @param jumps     number of jumps made so far
+	 * @param path      directions of the jumps made so far, two bits each
+	 * @param firstDir  first direction the piece may jump in
+	 * @param lastDir   last direction the piece may jump in
+	 * @param enemies   enemy pieces
+	 * @param captured  enemy pieces captured so far
+	 * @param empty     empty squares
+	 * @param moves     buffer to write the finished sequences to
+	 * @param count     number of moves in the buffer so far
 	 * 
-	 * @return     true if the given row and column index is out of the bounds of the 8 by 8 board
+	 * @return          number of moves in the buffer afterwards
 	 */
-	boolean outOfBounds(int row, int col) {
-		return row < 0 || row >= board.length || col < 0 || col >= board[0].length;
+	private int addJumps(int from, int square, int jumps, int path, int firstDir, int lastDir, int enemies,
+			int captured, int empty, long[] moves, int count) {
+		boolean extended = false;
+		for (int dir = firstDir; dir <= lastDir; dir++) {
+			int landing = BoardTopology.JUMP_LANDING[dir][square];
+			if (landing < 0) {
+				continue;
+			}
+			int jumped = 1 << BoardTopology.JUMPED[dir][square];
+			if ((enemies & ~captured & jumped) != 0 && (empty & (1 << landing)) != 0) {
+				extended = true;
+				count = addJumps(from, landing, jumps + 1, path | (dir << (2 * jumps)), firstDir, lastDir, enemies,
+						captured | jumped, (empty | (1 << square)) & ~(1 << landing), moves, count);
+			}
+		}
+		if (!extended && jumps > 0) {
+			moves[count++] = CheckersMove.encodeJumps(from, square, jumps, path, captured);
+		}
+		return count;
 	}
 
 	/**
@@ -323,228 +788,22 @@ public class CheckersData {
 	 * @param col    col index of the start square.
 	 */
 	CheckersMove[] getLegalJumpsFrom(int player, int row, int col) {
-		ArrayList<int[]> legalDirections = new ArrayList<>();
-		int enemy1 = 0;
-		int enemy2 = 0;
-
-		// Store information about the given player's enemies (normal and king enemy pieces) and its legal directions to move
-		if (player == BLACK) {
-			legalDirections.add(DIR1);
-			legalDirections.add(DIR2);
-			enemy1 = RED;
-			enemy2 = RED_KING;
-		} 
-		
-		else if (player == RED) {
-			legalDirections.add(DIR3);
-			legalDirections.add(DIR4);
-			enemy1 = BLACK;
-			enemy2 = BLACK_KING;
-		} 
+		long[] jumps = new long[MAX_MOVES];
+		int count = addJumpsFrom(player, squareIndex(row, col), jumps, 0);
 		
-		else if (player == BLACK_KING || player == RED_KING) {
-			legalDirections.add(DIR1);
-			legalDirections.add(DIR2);
-			legalDirections.add(DIR3);
-			legalDirections.add(DIR4);
-			
-			if (player == BLACK_KING) {
-				enemy1 = RED;
-				enemy2 = RED_KING;
-			} 
-			
-			else {
-				enemy1 = BLACK;
-				enemy2 = BLACK_KING;
-			}
-		}
-
-		ArrayList<CheckersMove> jumps = new ArrayList<>();
-		CheckersMove move = new CheckersMove(); // Starting point for a jump
-		move.addMove(row, col);
-		jumps.add(move);
-		int[][] current_board = deepCopyBoard();
-		
-		// Recursively find each possible jumps for all directions
-		findJumpsRecursive(player, enemy1, enemy2, row, col, DIR1, legalDirections, jumps, move.clone());
-		setBoard(current_board);
-		current_board = deepCopyBoard();
-		
-		findJumpsRecursive(player, enemy1, enemy2, row, col, DIR2, legalDirections, jumps, move.clone());
-		setBoard(current_board);
-		current_board = deepCopyBoard();
-		
-		findJumpsRecursive(player, enemy1, enemy2, row, col, DIR3, legalDirections, jumps, move.clone());
-		setBoard(current_board);
-		current_board = deepCopyBoard();
-		
-		findJumpsRecursive(player, enemy1, enemy2, row, col, DIR4, legalDirections, jumps, move.clone());
-		setBoard(current_board);
-
-		if (jumps.size() == 1) {
-			// Contains only the starting point, meaning no jumps can be made
-			if (jumps.get(0).rows.size() == 1) {
-				return null;
-			}
+		// No jumps can be made
+		if (count == 0) {
+			return null;
 		}
 		
-		// Convert into array from array list 
-		return convertToArrayFromArrayList(jumps);
-	}
-
-	/**
-	 * Recursively generate a jump move while checking if the generated jump move already has been generated before. 
-	 * 
-	 * @param player    player RED or BLACK
-	 * @param enemy1    first enemy of the given player (either normal or king piece)
-	 * @param enemy2    second enemy of the given player (either normal or king piece)
-	 * @param row       row index
-	 * @param col       column index
-	 * @param dir       direction in the form of array of size two
-	 * @param legalDir  legal list of directions for the given player's piece at the given row and column
-	 * @param jumps     the list of possible jump moves so far (database of jump moves)
-	 * @param move      the jump move in process of being generated
-	 */
-	void findJumpsRecursive(int player, int enemy1, int enemy2, int row, int col, int[] dir, ArrayList<int[]> legalDir,
-			ArrayList<CheckersMove> jumps, CheckersMove move) {
-		// If the given direction is valid
-		if (isLegalDir(dir, legalDir)) {
-			
-			// If the direction the piece is jumping to and its diagonal adjacent location are not out of bounds
-			if (!outOfBounds(row + dir[0], col + dir[1]) && !outOfBounds(row + (2 * dir[0]), col + (2 * dir[1]))) {
-				
-				// If there exists an enemy in diagonally adjacent square and the square to jump onto is EMPTY
-				if ((pieceAt(row + dir[0], col + dir[1]) == enemy1 || pieceAt(row + dir[0], col + dir[1]) == enemy2)
-						&& pieceAt(row + (2 * dir[0]), col + (2 * dir[1])) == EMPTY) {
-					int newRow = row + (2 * dir[0]);
-					int newCol = col + (2 * dir[1]);
-					makeMove(row, col, newRow, newCol);
-					int[][] b = deepCopyBoard();
-					
-					// Make a jump and update the piece location
-					move.addMove(newRow, newCol);
-					
-					// Update the database of possible jump moves based on the jump move that has been executed
-					updateJump(jumps, move);
-					
-					// Recursively find each possible jumps for all directions at the new location
-					findJumpsRecursive(player, enemy1, enemy2, newRow, newCol, DIR1, legalDir, jumps, move.clone());
-					setBoard(b);
-					b = deepCopyBoard();
-					
-					findJumpsRecursive(player, enemy1, enemy2, newRow, newCol, DIR2, legalDir, jumps, move.clone());
-					setBoard(b);
-					b = deepCopyBoard();
-					
-					findJumpsRecursive(player, enemy1, enemy2, newRow, newCol, DIR3, legalDir, jumps, move.clone());
-					setBoard(b);
-					b = deepCopyBoard();
-					
-					findJumpsRecursive(player, enemy1, enemy2, newRow, newCol, DIR4, legalDir, jumps, move.clone());
-					setBoard(b);
-				} 
-			} 
-		} 
-	}
-
-	/**
-	 * 
-	 * @param dir       direction in the form of array of size two
-	 * @param legalDir  legal list of directions for some player's piece
-	 * 
-	 * @return true if the given direction is part of the legal directions in the list
-	 */
-	boolean isLegalDir(int[] dir, ArrayList<int[]> legalDir) {
-		for (int[] d : legalDir) {
-			if (d.equals(dir)) {
-				return true;
-			}
+		// Unpack the jump moves for the callers of this method
+		CheckersMove[] actions = new CheckersMove[count];
+		for (int i = 0; i < count; i++) {
+			actions[i] = CheckersMove.fromCode(jumps[i]);
 		}
-		return false;
-	}
-
-	/**
-	 * Update the database of jump moves based on the given generated move
-	 * 
-	 * @param jumps  the list of possible jump moves so far (database of jump moves)
-	 * @param move   the jump move in process of being generated
-	 */ 
-	void updateJump(ArrayList<CheckersMove> jumps, CheckersMove move) {
-		/* Check if given move is a subset of one of the moves in the jumps list.
-		 * If yes, the jump move is still in process of generating, and we do not add
-		 * it into our database. 
-		 */
-    	if(isSubsetOfJumps(jumps, move)) { 
-    		return;
-    	}
-    	
-    	// Compare given move with every single jump move in the database
-    	for(int i = 0; i < jumps.size(); i++) {
-    		CheckersMove jump = jumps.get(i); 
-    		boolean similar = true; 
-    		if(jump.rows.size() <= move.rows.size()) {
-	    		for(int j = 0; j < jump.rows.size(); j++) {
-	    			if(jump.rows.get(j) != move.rows.get(j) || jump.cols.get(j) != move.cols.get(j)) {
-	    				// If they differ at the last jumping step, the given jump move is a different jumping path, so we add it to our database
-	    				if(j == jump.rows.size() - 1 && jump.rows.size() == move.rows.size() && !isSubsetOfJumps(jumps, move)) {
-	    					jumps.add(move); 
-	    				}
-	    				similar = false; 
-	    				break; 
-	    			}
-	    		}
-	    		if(similar && move.rows.size() > jump.rows.size()) { //Given move is built upon a constructed move in the jumps list
-	    			//Remove and update the corresponding move with the given jumping move
-	    			jumps.remove(i);
-	    			jumps.add(move); 
-	    			break; 
-	    		}
-    		}
-    		else {
-    			for(int j = 0; j < move.rows.size(); j++) {
-	    			if(jump.rows.get(j) != move.rows.get(j) || jump.cols.get(j) != move.cols.get(j)) {
-	    				// If they differ at the last jumping step, the given jump move is a different jumping path, so we add it to our database
-	    				if(j == move.rows.size() - 1 && !isSubsetOfJumps(jumps, move)) {
-	    					jumps.add(move); 
-	    				}
-	    				similar = false; 
-	    				break; 
-	    			}
-	    		}
-	    		if(similar) {
-	    			continue; 
-	    		}
-    		}
-    	}
+		return actions;
 	}
 
-	/**
-	 * 
-	 * @param jumps  the list of possible jump moves so far (database of jump moves)
-	 * @param move   the jump move in process of being generated
-	 * 
-	 * @return true if the given jump move is a subset of some jump move in the database, else false
-	 */
-	boolean isSubsetOfJumps(ArrayList<CheckersMove> jumps, CheckersMove move) {
-		for (int i = 0; i < jumps.size(); i++) {
-			boolean same = true;
-			CheckersMove jump = jumps.get(i);
-			if (jump.rows.size() >= move.rows.size()) {
-				for (int j = 0; j < move.rows.size(); j++) {
-					if (jump.rows.get(j) != move.rows.get(j) || jump.cols.get(j) != move.cols.get(j)) {
-						same = false;
-						break;
-					}
-				}
-				// if same is still true, all jumping step in the given move matches some part of a move in the database
-				if (same) {
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-	
 	/**
 	 * 
 	 * @param moves list of possible moves to execute in the form of array list
@@ -565,32 +824,64 @@ public class CheckersData {
 	 * @return the total number of BLACK and RED pieces on the board
 	 */
 	int number_of_pieces() {
-		int num_pieces = 0; 
-		for(int i = 0; i < board.length; i++) {
-			for(int j = 0; j < board[i].length; j++) {
-				if(i % 2 == j % 2) {
-					if(pieceAt(i, j) != EMPTY) {
-						num_pieces += 1; 
-					}
-				}
-			}
-		}
-		return num_pieces; 
+		return Integer.bitCount(redMen | redKings | blackMen | blackKings); 
+	}
+	
+	/*
+	 * Material counts. The bitboards are updated by every move, so counting their bits
+	 * gives the counts in constant time without separate counters to keep in sync.
+	 */
+	
+	// Number of RED men on the board
+	int redMenCount() {
+		return Integer.bitCount(redMen);
+	}
+	
+	// Number of RED kings on the board
+	int redKingCount() {
+		return Integer.bitCount(redKings);
+	}
+	
+	// Number of BLACK men on the board
+	int blackMenCount() {
+		return Integer.bitCount(blackMen);
+	}
+	
+	// Number of BLACK kings on the board
+	int blackKingCount() {
+		return Integer.bitCount(blackKings);
+	}
+	
+	/**
+	 * @param player  player RED or BLACK
+	 * 
+	 * @return        the number of men and kings the player has on the board
+	 */
+	int pieceCount(int player) {
+		return player == RED ? Integer.bitCount(redMen | redKings) : Integer.bitCount(blackMen | blackKings);
 	}
 	
 	/**
 	 * @return a deep copy of this CheckersData 
 	 */
     CheckersData cloneData(){
-    	CheckersData clone_board = new CheckersData();
-    	for (int row = 0; row < 8; row++){
-			for (int col = 0; col < 8; col++){
-				if (row % 2 == col % 2){
-					clone_board.board[row][col] = pieceAt(row, col);
-				}
-            }
-        }   
-        return clone_board;
+        return new CheckersData(this);
+    }
+    
+    /**
+     * Overwrite this position with a copy of the given one, reusing this object's arrays.
+     * 
+     * @param other the position to copy
+     */
+    void copyFrom(CheckersData other) {
+    	for (int row = 0; row < 8; row++) {
+    		System.arraycopy(other.board[row], 0, board[row], 0, 8);
+    	}
+    	redMen = other.redMen;
+    	redKings = other.redKings;
+    	blackMen = other.blackMen;
+    	blackKings = other.blackKings;
+    	zobrist = other.zobrist;
     }
 	
     /**
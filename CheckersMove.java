@@ -23,6 +23,115 @@ public class CheckersMove {
     ArrayList<Integer> rows = new ArrayList<Integer>();
     ArrayList<Integer> cols = new ArrayList<Integer>();
     
+    /*
+     * Moves produced by CheckersData.generateMoves are packed into a long
+     * instead of a CheckersMove object, so that searching allocates nothing
+     * per node, and two moves are equal exactly when their codes are. Squares
+     * are the playable-square indices of CheckersData.squareIndex and
+     * directions are CheckersData.DOWN_LEFT to CheckersData.UP_RIGHT. The
+     * layout of a move code is:
+     * bits 0-4   square the piece starts on
+     * bits 5-9   square the piece ends on
+     * bits 10-13 number of jumps, 0 for a single move
+     * bits 14-31 direction of each jump in order, two bits per jump
+     * bits 32-63 set of squares whose pieces are captured
+     *
+     * A piece can capture at most 9 pieces in one move, since every jumped
+     * square lies on one of 9 interior squares of the other diagonal colour,
+     * so 18 bits hold any jump path.
+     */
+    
+    // Packed code of a single move from square `from` to square `to`
+    static long encodeStep(int from, int to) {
+        return from | (to << 5);
+    }
+    
+    // Packed code of a sequence of jumps, given the directions packed two bits each
+    static long encodeJumps(int from, int to, int jumps, int path, int captured) {
+        return from | (to << 5) | (jumps << 10) | ((long) path << 14) | ((long) captured << 32);
+    }
+    
+    // Square the piece of the packed move starts on
+    static int fromSquare(long code) {
+        return (int) code & 31;
+    }
+    
+    // Square the piece of the packed move ends on
+    static int toSquare(long code) {
+        return (int) (code >>> 5) & 31;
+    }
+    
+    // Number of jumps in the packed move, 0 for a single move
+    static int jumpCount(long code) {
+        return (int) (code >>> 10) & 15;
+    }
+    
+    // Direction of the i-th jump of the packed move
+    static int jumpDirection(long code, int i) {
+        return (int) (code >>> (14 + 2 * i)) & 3;
+    }
+    
+    // Set of squares whose pieces the packed move captures
+    static int capturedSquares(long code) {
+        return (int) (code >>> 32);
+    }
+    
+    /**
+     * Unpack a move code into a CheckersMove, e.g. to hand it to the GUI.
+     * 
+     * @param code packed move code
+     * @return     the same move as rows and columns
+     */
+    static CheckersMove fromCode(long code) {
+        int from = fromSquare(code);
+        int row = CheckersData.squareRow(from);
+        int col = CheckersData.squareCol(from);
+        int jumps = jumpCount(code);
+        if (jumps == 0) {
+            int to = toSquare(code);
+            return new CheckersMove(row, col, CheckersData.squareRow(to), CheckersData.squareCol(to));
+        }
+        CheckersMove move = new CheckersMove();
+        move.addMove(row, col);
+        for (int i = 0; i < jumps; i++) {
+            int dir = jumpDirection(code, i);
+            row += dir <= CheckersData.DOWN_RIGHT ? 2 : -2;
+            col += dir == CheckersData.DOWN_RIGHT || dir == CheckersData.UP_RIGHT ? 2 : -2;
+            move.addMove(row, col);
+        }
+        return move;
+    }
+    
+    /**
+     * Pack this move into a move code. It is assumed that the move is legal.
+     * 
+     * @return the packed move code
+     */
+    long toCode() {
+        int from = CheckersData.squareIndex(rows.get(0), cols.get(0));
+        int last = rows.size() - 1;
+        int to = CheckersData.squareIndex(rows.get(last), cols.get(last));
+        if (!isJump()) {
+            return encodeStep(from, to);
+        }
+        int path = 0;
+        int captured = 0;
+        for (int i = 0; i < last; i++) {
+            int r1 = rows.get(i), c1 = cols.get(i);
+            int r2 = rows.get(i + 1), c2 = cols.get(i + 1);
+            int dir;
+            if (r2 > r1) {
+                dir = c2 < c1 ? CheckersData.DOWN_LEFT : CheckersData.DOWN_RIGHT;
+            }
+            else {
+                dir = c2 < c1 ? CheckersData.UP_LEFT : CheckersData.UP_RIGHT;
+            }
+            path |= dir << (2 * i);
+            captured |= 1 << CheckersData.squareIndex((r1 + r2) / 2, (c1 + c2) / 2);
+        }
+        return encodeJumps(from, to, last, path, captured);
+    }
+    
     CheckersMove(int r1, int c1, int r2, int c2) {
         // Constructor, a single move from
         //(r1, c1) to (r2, c2)
@@ -0,0 +1,80 @@
+package edu.iastate.cs472.proj2;
+
+import java.util.Arrays;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Small, lossy cache of leaf evaluations for AlphaBetaSearch, keyed by the
+ * Zobrist key of the pieces (CheckersData.zobrist). The evaluation does not
+ * depend on the player to move, so a leaf reached through another order of
+ * moves, or again in the next iteration of a deepening search, is looked up
+ * instead of evaluated.
+ * 
+ * The cache is direct-mapped: a key has exactly one slot, and storing
+ * overwrites whatever was there. Each entry is two longs in one array, the
+ * score bits and the key XORed with them, so that the entry can be checked
+ * without storing the key separately. As in TranspositionTable, this also
+ * lets several threads share the cache without locks, since an entry torn by
+ * a racing write no longer matches its key.
+ * 
+ * As in TranspositionTable, the lowest bit of the key is set before it is
+ * stored or compared, so that an empty slot matches no key, not even 0.
+ */
+public class EvalCache {
+	
+	static final int ENTRY_BYTES = 16; // check and score longs
+	
+	private final long[] entries; // entries[2 * i] is (key | 1) ^ score of slot i, entries[2 * i + 1] is its score as Double.doubleToRawLongBits
+	
+	private final int slot_mask; // number of slots - 1
+	
+	final int size_kb; // memory the cache was made for, in kilobytes
+	
+	/**
+	 * @param size_kb  memory to use for the cache in kilobytes, rounded down to a power of two number of slots
+	 */
+	EvalCache(int size_kb) {
+		this.size_kb = size_kb;
+		long slots = Math.max(1, (long) size_kb * 1024 / ENTRY_BYTES);
+		int size = Integer.highestOneBit((int) Math.min(slots, 1 << 29));
+		slot_mask = size - 1;
+		entries = new long[size * 2];
+	}
+	
+	/**
+	 * Look an evaluation up.
+	 * 
+	 * @param key  Zobrist key of the pieces
+	 * 
+	 * @return     the cached score, or NaN if the position is not in the cache
+	 */
+	double probe(long key) {
+		int slot = ((int) (key ^ key >>> 32) & slot_mask) << 1;
+		long score = entries[slot + 1];
+		if ((entries[slot] ^ score) == (key | 1)) {
+			return Double.longBitsToDouble(score);
+		}
+		return Double.NaN;
+	}
+	
+	/**
+	 * Remember an evaluation, replacing the one in its slot.
+	 * 
+	 * @param key    Zobrist key of the pieces
+	 * @param score  the evaluation
+	 */
+	void store(long key, double score) {
+		int slot = ((int) (key ^ key >>> 32) & slot_mask) << 1;
+		long scoreBits = Double.doubleToRawLongBits(score);
+		entries[slot + 1] = scoreBits;
+		entries[slot] = (key | 1) ^ scoreBits;
+	}
+	
+	/**
+	 * Empty the cache.
+	 */
+	void clear() {
+		Arrays.fill(entries, 0);
+	}
+}
@@ -18,6 +18,11 @@ public class MonteCarloTreeSearch extends AdversarialSearch {
 
 	double constant = Math.sqrt(2); // The constant used in the upper confidence bound formula
 	int N = 1000; // The number of simulations to execute
+	long[] playout_moves = new long[CheckersData.MAX_MOVES]; // Move buffer reused at every step of every playout, so playouts allocate no moves
+	Random rand = new Random(); // Source of the random moves chosen in playouts
+	Tablebase tablebase = Tablebase.openDefault(); // Solved endgames that end a playout early, or null when there is no tablebase
+	int ponder_simulations = 10000; // The most playouts run on the human's time, which bounds the memory the tree takes
+	MCNode ponder_root = null; // The tree of the state expected after the human's reply, grown while the human thinks, or null
 	
 	/**
      * The input parameter legalMoves contains all the possible moves.
@@ -42,8 +47,18 @@ public class MonteCarloTreeSearch extends AdversarialSearch {
         // 3 - black man
         // 4 - black king
         //System.out.println(board);
+        stats = new SearchStats(SearchStats.MCTS);
         System.out.println();
-        return MCTS(legalMoves, this.board, N);
+        CheckersMove book_move = bookMove(legalMoves); // A state in the opening book needs no search
+        if (book_move != null) {
+        	return stats.finish(book_move);
+        }
+        long tablebase_probes = tablebase == null ? 0 : tablebase.probes();
+        CheckersMove move = MCTS(legalMoves, this.board, N);
+        if (tablebase != null) {
+        	stats.tablebase_probes = tablebase.probes() - tablebase_probes;
+        }
+        return stats.finish(move);
     }
     
     /**
@@ -56,50 +71,118 @@ public class MonteCarloTreeSearch extends AdversarialSearch {
      * @return                 move that results in a state that is involved in the highest number of playouts
      */
     private CheckersMove MCTS(CheckersMove[] legalMoves, CheckersData state, int num_simulation) {
-    	MCNode root = new MCNode(state.RED, state.BLACK,  0, 0, state, null); // Initialize the root of the Monte Carlo search tree
-    	for(int i = 0; i < num_simulation; i++) {
-    		MCNode leaf = selection(root); // selection step
-    		boolean canBeExpanded = expand(leaf); // expansion step
-    		MCNode simulated_node; 
-    		// if the selected node can be expanded, choose one of its children that has the highest UCB value
-    		if(canBeExpanded) { 
-    			int child_index = chooseChildren(leaf); 
-        		simulated_node = leaf.getChildren().get(child_index);
-    		}
-    		else {
-    			// If the selected node cannot be expanded, use the selected node as the starting node for simulation
-    			simulated_node = leaf; 
-    		}
-    		String result = simulation_result(simulated_node); // Simulation step
-    		backpropagation(simulated_node, result); // Backpropagation step
+    	MCNode root; 
+    	// If the human made the reply that was expected, the tree grown while they thought already holds playouts of this state
+    	if(ponder_root != null && ponder_root.getState().zobristKey(CheckersData.BLACK) == state.zobristKey(CheckersData.BLACK)) {
+    		root = ponder_root; 
+    		stats.ponder_hit = true; 
+    	}
+    	else {
+    		root = new MCNode(state.RED, state.BLACK,  0, 0, state, null); // Initialize the root of the Monte Carlo search tree
+    	}
+    	ponder_root = null; 
+    	stats.reused_playouts = (long) root.getPlayouts(); 
+    	for(int i = (int) root.getPlayouts(); i < num_simulation; i++) {
+    		simulate(root, stats); 
+    		stats.playouts++; 
     	}
+    	measureTree(root, 0); 
     	
+    	long choice_start = System.nanoTime(); 
     	double max_playout = 0; 
     	CheckersMove move_taken = null; 
-    	int counter = 1; 
-    	int node_num = -1; 
-    	System.out.println("Number of childrens: " + root.getChildren().size());
-    	System.out.println(); 
+    	MCNode chosen = null; 
     	
     	// Finds the move that results in a state that is involved in the highest number of playouts.
     	for(MCNode node: root.getChildren()) {
-    		System.out.println("Node " + counter + ": "); 
-    		System.out.println("\t wins: " + node.getWins()); 
-    		System.out.println("\t playouts: " + node.getPlayouts()); 
-    		System.out.println("\t Win ratio: " + (double)node.getWins() / (double)node.getPlayouts());
     		if(max_playout < node.getPlayouts()) {
     			max_playout = node.getPlayouts(); 
     			move_taken = node.getMoveTaken(); 
-    			node_num = counter;
+    			chosen = node; 
     		}
-			System.out.println("\t Move taken: " + move_taken.toString());
-    		counter++; 
     	}
-    	System.out.println(); 
-    	System.out.println("------> Chosen move at node " + node_num);
+    	stats.addPhase("choice", System.nanoTime() - choice_start);
+    	if(use_ponder && chosen != null) {
+    		long ponder_start = System.nanoTime(); 
+    		startPondering(chosen); 
+    		stats.addPhase("ponder start", System.nanoTime() - ponder_start);
+    	}
     	return move_taken;
     }
     
+    /**
+     * Runs one playout: the selection, expansion, simulation and backpropagation steps of the MCTS algorithm
+     * 
+     * @param root   the root node of the Monte Carlo search tree
+     * @param stats  where to add the time of each step, or null to not record it
+     */
+    private void simulate(MCNode root, SearchStats stats) {
+    	long t0 = System.nanoTime(); 
+    	MCNode leaf = selection(root); // selection step
+    	long t1 = System.nanoTime(); 
+    	boolean canBeExpanded = expand(leaf); // expansion step
+    	MCNode simulated_node; 
+    	// if the selected node can be expanded, choose one of its children that has the highest UCB value
+    	if(canBeExpanded) { 
+    		int child_index = chooseChildren(leaf); 
+    		simulated_node = leaf.getChildren().get(child_index);
+    	}
+    	else {
+    		// If the selected node cannot be expanded, use the selected node as the starting node for simulation
+    		simulated_node = leaf; 
+    	}
+    	long t2 = System.nanoTime(); 
+    	String result = simulation_result(simulated_node); // Simulation step
+    	long t3 = System.nanoTime(); 
+    	backpropagation(simulated_node, result); // Backpropagation step
+    	if(stats != null) {
+    		stats.addPhase("selection", t1 - t0);
+    		stats.addPhase("expansion", t2 - t1);
+    		stats.addPhase("simulation", t3 - t2);
+    		stats.addPhase("backpropagation", System.nanoTime() - t3);
+    	}
+    }
+    
+    /**
+     * Adds the size and depth of a subtree of the Monte Carlo search tree to stats
+     * 
+     * @param node   root of the subtree
+     * @param depth  depth of node in the tree
+     */
+    private void measureTree(MCNode node, int depth) {
+    	stats.tree_size++; 
+    	stats.max_depth = Math.max(stats.max_depth, depth); 
+    	for(MCNode child: node.getChildren()) {
+    		measureTree(child, depth + 1); 
+    	}
+    }
+    
+    /**
+     * Keeps growing, while the human (RED) player thinks, the subtree of the reply the tree expects: the child of the chosen
+     * node with the most playouts. If the human makes that reply, the next search starts from this subtree.
+     * 
+     * @param chosen  the node of the move the agent (BLACK) is making
+     */
+    private void startPondering(MCNode chosen) {
+    	MCNode expected = null; 
+    	for(MCNode node: chosen.getChildren()) {
+    		if(expected == null || node.getPlayouts() > expected.getPlayouts()) {
+    			expected = node; 
+    		}
+    	}
+    	if(expected == null) { // The chosen node was never expanded, or the game is over
+    		return; 
+    	}
+    	expected.setParent(null); // Detach the subtree, so that playouts are counted from its root and the rest of the tree can be freed
+    	MCNode root = expected; 
+    	ponder_root = root; 
+    	ponder(() -> {
+    		while(!ponder_stop && root.getPlayouts() < ponder_simulations) {
+    			simulate(root, null); // not timed: stats belongs to the move already made
+    		}
+    	}, "MCTS ponder");
+    }
+    
     /**
      * Performs the selection step of the MCTS algorithm
      * 
@@ -155,21 +238,14 @@ public class MonteCarloTreeSearch extends AdversarialSearch {
     	int stepsToDraw = 40;  // Based on tournament rules, 40 moves without any piece being captured will result in a DRAW
     	int num_pieces = state.number_of_pieces(); 
     	
+    	// Based on the architecture of the Monte Carlo search tree, the enemy of the node executes a move first.
+    	// The moves of each step are generated once; when the player to move has none, the game has ended.
+    	int num_moves = state.generateMoves(decodeCounter(counter, player, enemy), playout_moves); 
+    	
     	// while the game has not end, keep on simulating...
-    	while(!isTerminal(state, decodeCounter(counter, player, enemy))) {
-    		CheckersMove[] legal_moves; 
-    		
-    		// Based on the architecture of the Monte Carlo search tree, the enemy of the node executes a move first
-    		if(counter % 2 == 0) {
-    			legal_moves = state.getLegalMoves(enemy); 
-    		}
-    		else {
-    			legal_moves = state.getLegalMoves(player);
-    		}
-    		
-    		Random rand = new Random();
-    		int move_index = rand.nextInt(legal_moves.length); // Choose a random legal move
-    		state.makeMove(legal_moves[move_index]);
+    	while(num_moves > 0) {
+    		int move_index = rand.nextInt(num_moves); // Choose a random legal move
+    		state.makeMove(playout_moves[move_index]);
     		int updated_num_pieces = state.number_of_pieces(); 
     		
     		// If no piece has been captured, start the count down for checking a draw
@@ -186,6 +262,20 @@ public class MonteCarloTreeSearch extends AdversarialSearch {
     			num_pieces = updated_num_pieces;
     		}
     		counter++;
+    		
+    		// Once few enough pieces are left, the tablebase knows how the playout would end if both sides played perfectly
+    		if(tablebase != null && num_pieces <= tablebase.max_pieces) {
+    			int solved = tablebase.probe(state, decodeCounter(counter, player, enemy));
+    			if(solved == Tablebase.DRAW) {
+    				return "DRAW";
+    			}
+    			if(solved > 0) {
+    				// the side to move is this node's player when the counter is odd
+    				boolean moverWins = solved < Tablebase.LOSS;
+    				return moverWins == (counter % 2 == 1) ? "WIN" : "LOSE";
+    			}
+    		}
+    		num_moves = state.generateMoves(decodeCounter(counter, player, enemy), playout_moves);
     	}
     	// After the while loop, if the counter stops at an even number, it is this node's player's win
     	if(counter % 2 == 0) {
@@ -268,18 +358,6 @@ public class MonteCarloTreeSearch extends AdversarialSearch {
     	 return index; 
      }
      
-     /**
-      * Checks whether the given state is terminal or not
-      * 
-      * @param state   a game state containing the board configuration details
-      * @param player  player RED or BLACK
-      * 
-      * @return        true if given state is terminal, else false
-      */
-     private boolean isTerminal(CheckersData state, int player) {
-    	 return state.getLegalMoves(player) == null; 
-     }
-     
      /**
       * Helper method for deciding which player's turn it is based on a counter value
       * 
@@ -295,4 +373,4 @@ public class MonteCarloTreeSearch extends AdversarialSearch {
     	 }
     	 return player; 
      }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package edu.iastate.cs472.proj2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Opening book: moves for the agent (BLACK) chosen ahead of time by
+ * OpeningBookBuilder, so that the first moves of a game need no search.
+ * 
+ * The book is a file of fixed-size entries sorted by position key, the
+ * Zobrist key of the position with BLACK to move. A position may have several
+ * entries, one per book move, and the move to play is drawn among them in
+ * proportion to their weights. The file is memory-mapped and looked up by
+ * binary search, so a probe touches a handful of entries and allocates
+ * nothing but the move it returns.
+ * 
+ * File layout (big-endian): the int MAGIC, the int VERSION, the int number of
+ * entries, then the entries. Each entry is the long position key, the long
+ * move code, the int weight, the float utility the search gave the move and
+ * the int depth it was searched to.
+ */
+public class OpeningBook {
+	
+	static final int MAGIC = 0x434B4F42; // "CKOB"
+	
+	static final int VERSION = 1;
+	
+	static final int HEADER_BYTES = 12; // bytes before the first entry
+	
+	static final int ENTRY_BYTES = 28; // bytes per entry
+	
+	static final String DEFAULT_FILE = "openingbook.bin";
+	
+	private final ByteBuffer entries; // the whole file, read-only
+	
+	final int size; // number of entries
+	
+	private final Random rand = new Random(); // draws among the moves of a position
+	
+	/**
+	 * One move of the book, as the builder collects them.
+	 */
+	static final class Entry {
+		
+		final long key; // zobristKey(BLACK) of the position
+		
+		final long move; // code of the move
+		
+		final int weight; // how often the move is chosen, relative to the other moves of the position
+		
+		final float score; // utility of the move for the agent (BLACK)
+		
+		final int depth; // depth the move was searched to
+		
+		Entry(long key, long move, int weight, float score, int depth) {
+			this.key = key;
+			this.move = move;
+			this.weight = weight;
+			this.score = score;
+			this.depth = depth;
+		}
+	}
+	
+	/**
+	 * Maps a book file, checking its header.
+	 */
+	OpeningBook(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("too big to map");
+			}
+			entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // the mapping outlives the channel
+		}
+		if (entries.limit() < HEADER_BYTES || entries.getInt(0) != MAGIC || entries.getInt(4) != VERSION) {
+			throw new IOException("not an opening book of version " + VERSION);
+		}
+		size = entries.getInt(8);
+		if (entries.limit() != HEADER_BYTES + (long) size * ENTRY_BYTES) {
+			throw new IOException("wrong number of entries");
+		}
+	}
+	
+	/**
+	 * Opens the book in the file DEFAULT_FILE, if it is there.
+	 * 
+	 * @return  the book, or null if there is none or it cannot be read
+	 */
+	static OpeningBook openDefault() {
+		File file = new File(DEFAULT_FILE);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			return new OpeningBook(file);
+		}
+		catch (IOException e) {
+			System.err.println("Could not read " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Looks the position up and draws one of its book moves, in proportion to their weights.
+	 * 
+	 * @param state       the position, with the agent (BLACK) to move
+	 * @param legalMoves  the moves the agent (BLACK) can make; book moves that are not among them are ignored
+	 * 
+	 * @return            the book move, from legalMoves, or null if the position is not in the book
+	 */
+	CheckersMove lookup(CheckersData state, CheckersMove[] legalMoves) {
+		long key = state.zobristKey(CheckersData.BLACK);
+		
+		// the first entry with a key of at least key
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (key(mid) < key) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		
+		int total = 0;
+		for (int i = low; i < size && key(i) == key; i++) {
+			if (indexOf(legalMoves, move(i)) >= 0) {
+				total += weight(i);
+			}
+		}
+		if (total <= 0) {
+			return null;
+		}
+		int pick = rand.nextInt(total);
+		for (int i = low; ; i++) {
+			int index = indexOf(legalMoves, move(i));
+			if (index >= 0 && (pick -= weight(i)) < 0) {
+				return legalMoves[index];
+			}
+		}
+	}
+	
+	private long key(int entry) {
+		return entries.getLong(HEADER_BYTES + entry * ENTRY_BYTES);
+	}
+	
+	private long move(int entry) {
+		return entries.getLong(HEADER_BYTES + entry * ENTRY_BYTES + 8);
+	}
+	
+	private int weight(int entry) {
+		return entries.getInt(HEADER_BYTES + entry * ENTRY_BYTES + 16);
+	}
+	
+	private static int indexOf(CheckersMove[] legalMoves, long move) {
+		for (int i = 0; i < legalMoves.length; i++) {
+			if (legalMoves[i].toCode() == move) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Writes a book, sorting the entries by key and, within a position, by weight.
+	 */
+	static void write(File file, ArrayList<Entry> book) throws IOException {
+		book.sort(Comparator.comparingLong((Entry entry) -> entry.key).thenComparingInt((Entry entry) -> -entry.weight));
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(book.size());
+			for (Entry entry : book) {
+				out.writeLong(entry.key);
+				out.writeLong(entry.move);
+				out.writeInt(entry.weight);
+				out.writeFloat(entry.score);
+				out.writeInt(entry.depth);
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package edu.iastate.cs472.proj2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Offline tool that builds an OpeningBook by deep searches of the openings.
+ * 
+ * Starting from the initial position, where the human (RED) player moves
+ * first, it follows every RED move and the book moves of the agent (BLACK),
+ * for a given number of BLACK moves. Each position reached with BLACK to move
+ * is searched to a fixed depth with AlphaBetaSearch. The best move goes into
+ * the book with weight MAX_WEIGHT, and every other move whose utility is
+ * within the margin of the best with a weight that falls linearly with the
+ * difference, so that the agent does not always play the same game. Each move
+ * but the best is searched on its own, on a search whose transposition table
+ * is cleared first, so that the utility it stores for the position does not
+ * mislead the other searches.
+ * 
+ * Usage: OpeningBookBuilder moves depth [file] [-margin m]
+ *   moves     number of BLACK moves in the book
+ *   depth     search depth of each position
+ *   file      where to write the book (default OpeningBook.DEFAULT_FILE)
+ *   -margin   utility below the best move that a move may lose and still be
+ *             in the book (default 0.01; a piece is worth 1 / 36)
+ */
+public class OpeningBookBuilder {
+	
+	static final int MAX_WEIGHT = 100; // weight of the best move of a position
+	
+	private final int depth; // search depth of each position
+	
+	private final double margin; // utility below the best move that a book move may lose
+	
+	private final AlphaBetaSearch search = new AlphaBetaSearch(); // finds the best move of each position
+	
+	private final AlphaBetaSearch scorer = new AlphaBetaSearch(); // finds the utility of the other moves, one at a time
+	
+	private final HashSet<Long> visited = new HashSet<Long>(); // keys of the positions searched so far, which may be reached by several orders of moves
+	
+	final ArrayList<OpeningBook.Entry> book = new ArrayList<OpeningBook.Entry>();
+	
+	private long nodes; // nodes searched so far
+	
+	OpeningBookBuilder(int depth, double margin) {
+		this.depth = depth;
+		this.margin = margin;
+		for (AlphaBetaSearch engine : new AlphaBetaSearch[] { search, scorer }) {
+			engine.max_search_depth = depth;
+			engine.time_budget_ms = AlphaBetaSearch.NO_TIME_LIMIT_MS; // no time limit, so that the book does not depend on the clock
+		}
+	}
+	
+	/**
+	 * Adds the positions reached by every move of the human (RED) player from state, and then by the book moves of the
+	 * agent (BLACK), to the book.
+	 * 
+	 * @param state  a position with RED to move, which is left as it was found
+	 * @param moves  number of BLACK moves to add below state
+	 */
+	void expand(CheckersData state, int moves) {
+		CheckersMove[] redMoves = state.getLegalMoves(CheckersData.RED);
+		if (redMoves == null || moves == 0) {
+			return;
+		}
+		for (CheckersMove redMove : redMoves) {
+			CheckersData position = state.cloneData();
+			position.makeMove(redMove);
+			if (!visited.add(position.zobristKey(CheckersData.BLACK))) {
+				continue;
+			}
+			CheckersMove[] legalMoves = position.getLegalMoves(CheckersData.BLACK);
+			if (legalMoves == null || !position.hasLegalMove(CheckersData.RED)) {
+				continue; // the game is over
+			}
+			for (CheckersMove bookMove : search(position, legalMoves)) {
+				CheckersData next = position.cloneData();
+				next.makeMove(bookMove);
+				expand(next, moves - 1);
+			}
+		}
+	}
+	
+	/**
+	 * Searches a position and adds its book moves to the book.
+	 * 
+	 * @return  the book moves
+	 */
+	private ArrayList<CheckersMove> search(CheckersData position, CheckersMove[] legalMoves) {
+		ArrayList<CheckersMove> bookMoves = new ArrayList<CheckersMove>();
+		long key = position.zobristKey(CheckersData.BLACK);
+		search.setCheckersData(position);
+		int best = search.getBestMove(legalMoves);
+		double best_value = search.root_value;
+		nodes += search.nodes;
+		book.add(new OpeningBook.Entry(key, legalMoves[best].toCode(), MAX_WEIGHT, (float) best_value, depth));
+		bookMoves.add(legalMoves[best]);
+		
+		if (margin > 0) {
+			scorer.setCheckersData(position);
+			for (int i = 0; i < legalMoves.length; i++) {
+				if (i == best) {
+					continue;
+				}
+				scorer.tt.clear();
+				scorer.getBestMove(new CheckersMove[] { legalMoves[i] });
+				double value = scorer.root_value;
+				nodes += scorer.nodes;
+				if (best_value - value <= margin) {
+					int weight = Math.max(1, (int) Math.round(MAX_WEIGHT * (1 - (best_value - value) / margin)));
+					book.add(new OpeningBook.Entry(key, legalMoves[i].toCode(), weight, (float) value, depth));
+					bookMoves.add(legalMoves[i]);
+				}
+			}
+		}
+		return bookMoves;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: OpeningBookBuilder moves depth [file] [-margin m]");
+			return;
+		}
+		int moves = Integer.parseInt(args[0]);
+		int depth = Integer.parseInt(args[1]);
+		File file = new File(OpeningBook.DEFAULT_FILE);
+		double margin = 0.01;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("-margin")) {
+				margin = Double.parseDouble(args[++i]);
+			}
+			else {
+				file = new File(args[i]);
+			}
+		}
+		
+		OpeningBookBuilder builder = new OpeningBookBuilder(depth, margin);
+		long start = System.nanoTime();
+		builder.expand(new CheckersData(), moves);
+		OpeningBook.write(file, builder.book);
+		System.out.println(String.format("%d positions, %d entries, %d nodes, %d ms", builder.visited.size(), builder.book.size(),
+				builder.nodes, (System.nanoTime() - start) / 1000000));
+	}
+}
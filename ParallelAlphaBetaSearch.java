@@ -0,0 +1,763 @@
+package edu.iastate.cs472.proj2;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Deterministic parallel alpha-beta search on a ForkJoinPool, using Young
+ * Brothers Wait: at every state with enough plies left below it, the eldest
+ * child (the first move) is searched first, and only then are its younger
+ * brothers forked as tasks, each on its own copy of the board. The window of
+ * the brothers is kept in a SplitPoint, and narrows as they finish, so that a
+ * brother starts with the best utility found by those before it. A brother
+ * that causes a cutoff aborts the brothers after it in move order, and the
+ * parent returns the utility of the first brother in move order that caused
+ * one. States closer to the horizon are searched serially, with make/unmake,
+ * in the task that reaches them.
+ * 
+ * The search deepens iteratively, as AlphaBetaSearch does, until its time
+ * budget has passed; the first iteration always finishes, and one that runs
+ * out of time is thrown away. Each iteration is given its depth and deadline,
+ * which every task of it reads, rather than fields the next search could
+ * change. Each worker thread has its own move buffers, killer moves and
+ * history scores, and the evaluation and quiescence search are those of
+ * AlphaBetaSearch.
+ * 
+ * The workers share the transposition table: they store what they find in it
+ * and search its best move first. An entry only settles a state if it was
+ * searched to exactly the plies the state has left, since the utility of a
+ * state searched to a given number of plies does not depend on who searched
+ * it, while an entry searched deeper would make the result depend on which
+ * worker got there first. So the utility of every state that is not aborted,
+ * and so the move chosen by an iteration, do not depend on how the threads are
+ * scheduled: the move is the first of the root moves with the best utility.
+ * The number of states visited does, since an aborted brother stops wherever
+ * it has got to and the windows narrow in the order the brothers finish.
+ * 
+ * The parallel search only pays off with several cores. On one core it is
+ * slower than AlphaBetaSearch: it copies the board for every brother, cannot
+ * use entries searched deeper than needed, and searches brothers with wider
+ * windows than a serial search would have. Running the class checks that
+ * makeMove() reaches the parallel search and benchmarks it against the serial
+ * AlphaBetaSearch.getBestMove, which shows whether it pays off on a machine:
+ * ParallelAlphaBetaSearch [depth] [threads] [positions]
+ */
+public class ParallelAlphaBetaSearch extends AlphaBetaSearch {
+	
+	int parallelism = Runtime.getRuntime().availableProcessors(); // number of worker threads in the pool
+	
+	int min_split_draft = 3; // states with fewer plies than this left below them are searched serially
+	
+	ForkJoinPool pool; // the worker threads, kept from one move to the next
+	
+	final ArrayList<Worker> workers = new ArrayList<Worker>(); // the Worker of every thread of the pool that has run a task, to prepare and count them between searches
+	
+	private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(this::newWorker); // the Worker of the thread running a task
+	
+	/**
+	 * The buffers, move ordering tables and counters of one worker thread, which no other thread uses.
+	 */
+	final class Worker {
+		
+		long[][] serial_moves = new long[0][]; // move buffer for each depth of the serial searches
+		
+		int[][] serial_scores = new int[0][]; // ordering score of each move in serial_moves, for the depths above the horizon
+		
+		long[][] split_moves = new long[0][]; // move buffers of the split states being searched, innermost last; a stack rather than one per depth, since the worker may run another task of any depth while it waits for brothers
+		
+		int[][] split_scores = new int[0][]; // ordering score of each move in split_moves
+		
+		int split_top; // number of split_moves in use
+		
+		long[][] killers = new long[0][2]; // the two latest moves at each search depth that caused a cutoff
+		
+		final int[][] history = new int[32][32]; // history[from][to] grows each time a move from square from to square to causes a cutoff
+		
+		final TranspositionTable.Probe tt_entry = new TranspositionTable.Probe(); // the entry found by the last probe of this worker
+		
+		long nodes; // number of states visited in the current search
+		
+		long cutoffs; // number of those that were pruned
+		
+		long first_move_cutoffs; // number of those pruned by the first move searched
+		
+		/**
+		 * Gets ready for the search of a new state: makes sure the buffers are big enough, ages the move ordering tables
+		 * and resets the counters.
+		 */
+		void prepare() {
+			if (killers.length < max_search_depth + 1 || serial_moves.length < max_search_depth + max_quiescence_depth + 1) {
+				serial_moves = new long[max_search_depth + max_quiescence_depth + 1][CheckersData.MAX_MOVES];
+				serial_scores = new int[max_search_depth + 1][CheckersData.MAX_MOVES];
+				killers = new long[max_search_depth + 1][2];
+			}
+			ageOrdering(killers, history);
+			nodes = cutoffs = first_move_cutoffs = 0;
+			tt_entry.resetCounters();
+		}
+		
+		/**
+		 * @return  index in split_moves and split_scores of a free pair of buffers, which pop() gives back
+		 */
+		int push() {
+			if (split_top == split_moves.length) {
+				int size = Math.max(8, 2 * split_top);
+				long[][] moves = new long[size][];
+				int[][] scores = new int[size][];
+				System.arraycopy(split_moves, 0, moves, 0, split_top);
+				System.arraycopy(split_scores, 0, scores, 0, split_top);
+				for (int i = split_top; i < size; i++) {
+					moves[i] = new long[CheckersData.MAX_MOVES];
+					scores[i] = new int[CheckersData.MAX_MOVES];
+				}
+				split_moves = moves;
+				split_scores = scores;
+			}
+			return split_top++;
+		}
+		
+		void pop() {
+			split_top--;
+		}
+		
+		/**
+		 * Counts a visited state and checks the clock and ponder_stop every 1024 states.
+		 * 
+		 * @return  true if the iteration has been aborted
+		 */
+		boolean outOfTime(Iteration iteration) {
+			if ((++nodes & 1023) == 0 && ((iteration.timed && System.nanoTime() - iteration.deadline >= 0) || ponder_stop)) {
+				iteration.aborted = true;
+			}
+			return iteration.aborted;
+		}
+	}
+	
+	/**
+	 * One iteration of the deepening: the depth it searches to and when it stops, given to every task it runs.
+	 */
+	static final class Iteration {
+		
+		final int limit; // the depth searched to
+		
+		final boolean timed; // whether the iteration stops at the deadline; the first is never stopped, so that there is a move to fall back on
+		
+		final long deadline; // System.nanoTime() at which the iteration stops, compared by subtraction, since nanoTime() may wrap
+		
+		volatile boolean aborted; // set when the time runs out or pondering is stopped; an aborted iteration is thrown away
+		
+		Iteration(int limit, boolean timed, long deadline) {
+			this.limit = limit;
+			this.timed = timed;
+			this.deadline = deadline;
+		}
+	}
+	
+	/**
+	 * The window of the brothers forked at a state, and the first of them in move order that has caused a cutoff, which
+	 * stops the brothers after it.
+	 */
+	static final class SplitPoint {
+		
+		final SplitPoint parent; // the split point above this one, null at the root
+		
+		final int branch; // index, among the brothers of parent, of the brother this split point is below
+		
+		volatile double alpha; // the minimum utility that the agent (BLACK) is assured of at the state; raised as the brothers of a max state finish
+		
+		volatile double beta; // the maximum utility that the human (RED) player is assured of at the state; lowered as the brothers of a min state finish
+		
+		volatile int cutoff_index = Integer.MAX_VALUE; // index of the first brother in move order that caused a cutoff, MAX_VALUE if none has
+		
+		volatile double cutoff_value; // the utility of that brother
+		
+		SplitPoint(SplitPoint parent, int branch, double alpha, double beta) {
+			this.parent = parent;
+			this.branch = branch;
+			this.alpha = alpha;
+			this.beta = beta;
+		}
+		
+		/**
+		 * @param index  index of a brother of this split point
+		 * 
+		 * @return       true if a brother before it in move order has caused a cutoff, here or at any split point above
+		 */
+		boolean isAborted(int index) {
+			for (SplitPoint split = this; split != null; index = split.branch, split = split.parent) {
+				if (split.cutoff_index < index) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * Records that a brother has cut the state off, which stops the brothers after it.
+		 * 
+		 * @param index  index of the brother
+		 * @param value  its utility, which is the bound the state returns if no brother before it causes a cutoff
+		 */
+		synchronized void cutoff(int index, double value) {
+			if (index < cutoff_index) {
+				cutoff_value = value;
+				cutoff_index = index;
+			}
+		}
+		
+		/**
+		 * Narrows the window with the utility of a brother that finished without a cutoff, for the brothers that start
+		 * after it. Only the side of the window the state's player moves changes, so a cutoff still means the same.
+		 * 
+		 * @param maximizing  true at a max state, false at a min state
+		 * @param value       the utility of the brother
+		 */
+		synchronized void improve(boolean maximizing, double value) {
+			if (maximizing) {
+				alpha = Math.max(alpha, value);
+			}
+			else {
+				beta = Math.min(beta, value);
+			}
+		}
+	}
+	
+	/**
+	 * The search of one forked brother, on its own copy of the board with the move already made.
+	 */
+	final class BrotherTask extends RecursiveTask<Double> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		final Iteration iteration; // the iteration the brother belongs to
+		
+		final CheckersData state; // the state after the brother's move
+		
+		final int player; // the player to move in state
+		
+		final int depth; // the search depth of state
+		
+		final SplitPoint split; // the split point of the parent state
+		
+		final int index; // index of the brother's move among the moves of the parent state, the eldest being 0
+		
+		final boolean exact_ties; // search with alpha lowered by one ulp, so that a utility equal to alpha still comes back exact
+		
+		BrotherTask(Iteration iteration, CheckersData state, int player, int depth, SplitPoint split, int index, boolean exact_ties) {
+			this.iteration = iteration;
+			this.state = state;
+			this.player = player;
+			this.depth = depth;
+			this.split = split;
+			this.index = index;
+			this.exact_ties = exact_ties;
+		}
+		
+		protected Double compute() {
+			double alpha = exact_ties ? Math.nextDown(split.alpha) : split.alpha;
+			double value = search(iteration, state, player, depth, alpha, split.beta, split, index);
+			if (iteration.aborted || split.isAborted(index)) {
+				return value; // meaningless, and no longer needed
+			}
+			boolean maximizing = player == CheckersData.RED; // RED to move here means the parent is a max state
+			if (maximizing ? value >= split.beta : value <= split.alpha) {
+				split.cutoff(index, value); // the parent is cut off, so the brothers after this one need not finish
+			}
+			else {
+				split.improve(maximizing, value);
+			}
+			return value;
+		}
+	}
+	
+	/**
+	 * Searches a state in parallel, deepening one ply at a time from depth 1 up to max_search_depth until budget_ms has
+	 * passed. Each iteration searches the best move of the one before it first. This overrides the search that
+	 * AlphaBetaSearch.makeMove() and getBestMove(legalMoves) call, so both reach the parallel search.
+	 * 
+	 * @param state       the state to search, which is left as it was found
+	 * @param legalMoves  the available moves the agent (BLACK) can execute in state
+	 * @param budget_ms   wall-clock time the search may take, in milliseconds
+	 * 
+	 * @return            the index of the first move in legalMoves with the maximum utility for the agent (BLACK), found by
+	 *                    the deepest iteration that finished
+	 */
+	int getBestMove(CheckersData state, CheckersMove[] legalMoves, long budget_ms) {
+		if (!state.hasLegalMove(CheckersData.RED)) {
+			return 0; // agent (BLACK) wins if human (RED) player has no more valid moves
+		}
+		long start = System.nanoTime();
+		if (pool == null || pool.getParallelism() != parallelism) {
+			if (pool != null) {
+				pool.shutdown();
+			}
+			pool = new ForkJoinPool(parallelism);
+			synchronized (workers) {
+				workers.clear(); // they belonged to the threads of the old pool
+			}
+		}
+		sizeTables();
+		prepareSearch(state); // the counters makeMove() reports
+		synchronized (workers) {
+			for (Worker w : workers) {
+				w.prepare();
+			}
+		}
+		
+		// A move from the transposition table, left there by the search of an earlier move, is searched first in the first iteration
+		int index = 0;
+		if (tt.probe(state.zobristKey(CheckersData.BLACK), tt_entry)) {
+			index = Math.max(indexOf(legalMoves, tt_entry.move), 0);
+		}
+		
+		CheckersData root = state.cloneData();
+		long deadline = start + Math.min(budget_ms, NO_TIME_LIMIT_MS) * 1000000L;
+		for (int depth = 1; depth <= max_search_depth; depth++) {
+			long iteration_start = System.nanoTime();
+			Iteration iteration = new Iteration(depth, completed_depth > 0, deadline);
+			
+			// The best move so far is searched first, and the others in their usual order
+			CheckersMove[] rootMoves = legalMoves.clone();
+			System.arraycopy(legalMoves, 0, rootMoves, 1, index);
+			rootMoves[0] = legalMoves[index];
+			int first = index;
+			double[] values = pool.invoke(new RecursiveTask<double[]>() {
+				private static final long serialVersionUID = 1L;
+				
+				protected double[] compute() {
+					return searchRoot(iteration, root, rootMoves);
+				}
+			});
+			long total = countWorkers();
+			if (iteration.aborted) { // out of time: keep the move of the last iteration that finished
+				nodes = total;
+				break;
+			}
+			
+			// the first move in the order of legalMoves with the best utility
+			double[] utilities = new double[values.length];
+			for (int i = 0; i < values.length; i++) {
+				utilities[i == 0 ? first : (i <= first ? i - 1 : i)] = values[i];
+			}
+			index = 0;
+			for (int i = 1; i < utilities.length; i++) {
+				if (utilities[i] > utilities[index]) {
+					index = i;
+				}
+			}
+			root_value = utilities[index];
+			tt.store(state.zobristKey(CheckersData.BLACK), depth, TranspositionTable.EXACT, root_value, legalMoves[index].toCode());
+			completed_depth = depth;
+			iteration_nodes[depth] = total - nodes;
+			iteration_ns[depth] = System.nanoTime() - iteration_start;
+			nodes = total;
+			if (System.nanoTime() - deadline >= 0) {
+				break;
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * Adds up the counters of the workers into those of this search that makeMove() reports.
+	 * 
+	 * @return  the number of states the workers have visited in the current search
+	 */
+	private long countWorkers() {
+		long total = 0;
+		cutoffs = first_move_cutoffs = 0;
+		tt_entry.resetCounters();
+		synchronized (workers) {
+			for (Worker w : workers) {
+				total += w.nodes;
+				cutoffs += w.cutoffs;
+				first_move_cutoffs += w.first_move_cutoffs;
+				tt_entry.probes += w.tt_entry.probes;
+				tt_entry.hits += w.tt_entry.hits;
+			}
+		}
+		return total;
+	}
+	
+	/**
+	 * @return  a new Worker for the thread calling it, ready for the current search
+	 */
+	private Worker newWorker() {
+		Worker w = new Worker();
+		w.prepare();
+		synchronized (workers) {
+			workers.add(w);
+		}
+		return w;
+	}
+	
+	/**
+	 * Searches the root moves. The first is searched with the full window; the others are then forked, each with alpha lowered
+	 * by one ulp, so that any move whose utility is at least the best found so far comes back with its exact utility. That makes
+	 * the best utility, and the first move reaching it, the same whatever order the brothers finish in.
+	 * 
+	 * @return  the utility of each move of legalMoves, exact for the moves that could be the best; meaningless if the iteration
+	 *          was aborted
+	 */
+	private double[] searchRoot(Iteration iteration, CheckersData root, CheckersMove[] legalMoves) {
+		double[] values = new double[legalMoves.length];
+		long first = legalMoves[0].toCode();
+		long undo = root.makeMove(first);
+		values[0] = search(iteration, root, CheckersData.RED, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, null, 0);
+		root.unmakeMove(first, undo);
+		if (iteration.aborted) {
+			return values;
+		}
+		
+		SplitPoint split = new SplitPoint(null, 0, values[0], Double.POSITIVE_INFINITY);
+		ArrayList<BrotherTask> brothers = new ArrayList<BrotherTask>();
+		for (int i = 1; i < legalMoves.length; i++) {
+			CheckersData state = root.cloneData();
+			state.makeMove(legalMoves[i].toCode());
+			BrotherTask task = new BrotherTask(iteration, state, CheckersData.RED, 1, split, i, true);
+			task.fork();
+			brothers.add(task);
+		}
+		for (int i = 1; i < legalMoves.length; i++) {
+			values[i] = brothers.get(i - 1).join();
+		}
+		return values;
+	}
+	
+	/**
+	 * Searches a state with the semantics of AlphaBetaSearch.max_value() and min_value(), splitting it among the workers
+	 * once its eldest child has been searched, if there are at least min_split_draft plies left below it.
+	 * 
+	 * @param iteration  the iteration searching the state
+	 * @param state      the state, which is left as it was found
+	 * @param player     the player to move, BLACK at max states and RED at min states
+	 * @param depth      the current search depth
+	 * @param alpha      the minimum utility that the agent (BLACK) is assured of
+	 * @param beta       the maximum utility that the human (RED) player is assured of
+	 * @param parent     the split point the state is below, null if none
+	 * @param branch     index of the brother of parent the state is below
+	 * 
+	 * @return           the utility of the state for the agent (BLACK); meaningless if the iteration or that brother was aborted
+	 */
+	private double search(Iteration iteration, CheckersData state, int player, int depth, double alpha, double beta, SplitPoint parent, int branch) {
+		Worker w = worker.get();
+		int draft = iteration.limit - depth;
+		if (draft < min_split_draft) {
+			return serial(iteration, w, state, player, depth, alpha, beta, parent, branch);
+		}
+		if (w.outOfTime(iteration) || (parent != null && parent.isAborted(branch))) {
+			return 0;
+		}
+		boolean maximizing = player == CheckersData.BLACK;
+		int enemy = maximizing ? CheckersData.RED : CheckersData.BLACK;
+		if (!state.hasLegalMove(player)) {
+			return maximizing ? -1 : 1;
+		}
+		if (!state.hasLegalMove(enemy)) {
+			return maximizing ? 1 : -1;
+		}
+		if (tablebase != null) {
+			int solved = tablebase.probe(state, player);
+			if (solved >= 0) {
+				return Tablebase.utility(solved, player);
+			}
+		}
+		long key = state.zobristKey(player);
+		long ttMove = 0;
+		if (tt.probe(key, w.tt_entry)) {
+			if (isCutoff(w.tt_entry, draft, alpha, beta)) {
+				return w.tt_entry.score;
+			}
+			ttMove = w.tt_entry.move;
+		}
+		
+		int frame = w.push();
+		long[] moves = w.split_moves[frame];
+		int num_moves = state.generateMoves(player, moves);
+		orderMoves(moves, w.split_scores[frame], num_moves, ttMove, w.killers[depth], w.history);
+		
+		// the eldest brother is searched first, on this board
+		long undo = state.makeMove(moves[0]);
+		double value = search(iteration, state, enemy, depth + 1, alpha, beta, parent, branch);
+		state.unmakeMove(moves[0], undo);
+		long best_move = moves[0];
+		if (iteration.aborted || (parent != null && parent.isAborted(branch))) {
+			w.pop();
+			return value;
+		}
+		if (maximizing ? value >= beta : value <= alpha) {
+			w.cutoffs++;
+			w.first_move_cutoffs++;
+			rememberCutoff(w.killers[depth], w.history, draft, best_move);
+			w.pop();
+			store(key, draft, value, alpha, beta, best_move);
+			return value;
+		}
+		if (num_moves == 1) {
+			w.pop();
+			store(key, draft, value, alpha, beta, best_move);
+			return value;
+		}
+		
+		// then the younger brothers are forked, each on its own board
+		SplitPoint split = new SplitPoint(parent, branch, maximizing ? Math.max(alpha, value) : alpha, maximizing ? beta : Math.min(beta, value));
+		BrotherTask[] brothers = new BrotherTask[num_moves - 1];
+		for (int i = 1; i < num_moves; i++) {
+			CheckersData child = state.cloneData();
+			child.makeMove(moves[i]);
+			brothers[i - 1] = new BrotherTask(iteration, child, enemy, depth + 1, split, i, false);
+			brothers[i - 1].fork();
+		}
+		for (BrotherTask task : brothers) {
+			double next_state_value = task.join();
+			if (task.index < split.cutoff_index && (maximizing ? next_state_value > value : next_state_value < value)) {
+				value = next_state_value;
+				best_move = moves[task.index];
+			}
+		}
+		int cutoff_index = split.cutoff_index;
+		long cutoff_move = cutoff_index == Integer.MAX_VALUE ? 0 : moves[cutoff_index];
+		w.pop();
+		if (iteration.aborted || (parent != null && parent.isAborted(branch))) {
+			return value;
+		}
+		if (cutoff_move != 0) { // pruning: the first brother that caused a cutoff decides, and those after it were stopped
+			w.cutoffs++;
+			rememberCutoff(w.killers[depth], w.history, draft, cutoff_move);
+			store(key, draft, split.cutoff_value, alpha, beta, cutoff_move);
+			return split.cutoff_value;
+		}
+		store(key, draft, value, alpha, beta, best_move);
+		return value;
+	}
+	
+	/**
+	 * Searches a state serially with make/unmake on one board, as AlphaBetaSearch does, with the move buffers and move
+	 * ordering tables of the worker running the search.
+	 * 
+	 * @param w  the Worker of the thread running the search
+	 */
+	private double serial(Iteration iteration, Worker w, CheckersData state, int player, int depth, double alpha, double beta, SplitPoint parent, int branch) {
+		if (w.outOfTime(iteration)) {
+			return 0;
+		}
+		boolean maximizing = player == CheckersData.BLACK;
+		int enemy = maximizing ? CheckersData.RED : CheckersData.BLACK;
+		if (!state.hasLegalMove(player)) {
+			return maximizing ? -1 : 1;
+		}
+		if (!state.hasLegalMove(enemy)) {
+			return maximizing ? 1 : -1;
+		}
+		if (tablebase != null) {
+			int solved = tablebase.probe(state, player);
+			if (solved >= 0) {
+				return Tablebase.utility(solved, player);
+			}
+		}
+		int draft = iteration.limit - depth;
+		long[] moves = w.serial_moves[depth];
+		int num_moves;
+		long key = 0;
+		if (draft <= 0) {
+			// quiescence: keep searching the jumps that have to be made, then evaluate
+			if (!use_quiescence || state.jumpers(player) == 0 || draft <= -max_quiescence_depth) {
+				return evaluate(state);
+			}
+			num_moves = state.generateMoves(player, moves); // jumps only, since jumps are forced
+		}
+		else {
+			key = state.zobristKey(player);
+			long ttMove = 0;
+			if (tt.probe(key, w.tt_entry)) {
+				if (isCutoff(w.tt_entry, draft, alpha, beta)) {
+					return w.tt_entry.score;
+				}
+				ttMove = w.tt_entry.move;
+			}
+			num_moves = state.generateMoves(player, moves);
+			orderMoves(moves, w.serial_scores[depth], num_moves, ttMove, w.killers[depth], w.history);
+		}
+		
+		double original_alpha = alpha;
+		double original_beta = beta;
+		double value = maximizing ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		long best_move = 0;
+		for (int i = 0; i < num_moves; i++) {
+			long move = moves[i];
+			long undo = state.makeMove(move);
+			double next_state_value = serial(iteration, w, state, enemy, depth + 1, alpha, beta, parent, branch);
+			state.unmakeMove(move, undo);
+			// aborts are checked for after each move rather than on entering each state, which finds them as soon with half the checks
+			if (draft > 0 && (iteration.aborted || (parent != null && parent.isAborted(branch)))) { // the value is incomplete, so it is not stored
+				return value;
+			}
+			if (maximizing ? next_state_value > value : next_state_value < value) {
+				value = next_state_value;
+				best_move = move;
+			}
+			if (maximizing ? value >= beta : value <= alpha) { // pruning
+				if (draft > 0) {
+					w.cutoffs++;
+					if (i == 0) {
+						w.first_move_cutoffs++;
+					}
+					rememberCutoff(w.killers[depth], w.history, draft, move);
+					store(key, draft, value, original_alpha, original_beta, best_move);
+				}
+				return value;
+			}
+			if (maximizing) {
+				alpha = Math.max(alpha, value);
+			}
+			else {
+				beta = Math.min(beta, value);
+			}
+		}
+		if (draft > 0) {
+			store(key, draft, value, original_alpha, original_beta, best_move);
+		}
+		return value;
+	}
+	
+	/**
+	 * Evaluates a leaf with improved_utility(), unless the evaluation cache already has it.
+	 */
+	private double evaluate(CheckersData state) {
+		double score = eval_cache.probe(state.zobrist);
+		if (Double.isNaN(score)) {
+			score = improved_utility(state);
+			eval_cache.store(state.zobrist, score);
+		}
+		return score;
+	}
+	
+	/**
+	 * Stores the utility of a state in the transposition table, as the kind of bound the window it was searched with makes it.
+	 * 
+	 * @param key    Zobrist key of the state, including the player to move
+	 * @param draft  number of plies that were left to search below the state
+	 * @param value  the utility found
+	 * @param alpha  the alpha the state was searched with
+	 * @param beta   the beta the state was searched with
+	 * @param move   best move found in the CheckersMove code format
+	 */
+	private void store(long key, int draft, double value, double alpha, double beta, long move) {
+		int bound = value <= alpha ? TranspositionTable.UPPER : (value >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT);
+		tt.store(key, draft, bound, value, move);
+	}
+	
+	/**
+	 * @param entry  a transposition table entry of the state
+	 * @param draft  number of plies left to search below the state
+	 * 
+	 * @return       true if the entry was searched to exactly draft plies and its score settles the state for the window alpha
+	 *               to beta; an entry searched deeper would give a utility that depends on which worker stored it first
+	 */
+	private static boolean isCutoff(TranspositionTable.Probe entry, int draft, double alpha, double beta) {
+		if (entry.depth != draft) {
+			return false;
+		}
+		switch (entry.bound) {
+			case TranspositionTable.EXACT: return true;
+			case TranspositionTable.LOWER: return entry.score >= beta;
+			default:                       return entry.score <= alpha;
+		}
+	}
+	
+	/**
+	 * Checks that AdversarialSearch.makeMove() reaches the parallel search and not only the serial one this class extends:
+	 * after a move, the workers must have visited states.
+	 * 
+	 * @throws IllegalStateException  if they have not
+	 */
+	static void checkMakeMove() {
+		ParallelAlphaBetaSearch search = new ParallelAlphaBetaSearch();
+		search.book = null; // so that the move is searched
+		search.max_search_depth = 6;
+		search.parallelism = 2;
+		CheckersData position = new CheckersData();
+		position.makeMove(position.getLegalMoves(CheckersData.RED)[0]);
+		search.setCheckersData(position);
+		CheckersMove move = search.makeMove(position.getLegalMoves(CheckersData.BLACK));
+		if (search.pool == null) {
+			throw new IllegalStateException("makeMove() did not reach the parallel search: the pool was never started");
+		}
+		search.pool.shutdown();
+		if (search.workers.isEmpty() || search.countWorkers() == 0) {
+			throw new IllegalStateException("makeMove() did not reach the parallel search: the workers visited no states");
+		}
+		System.out.println("makeMove() searched in parallel: " + move + ", depth " + search.completed_depth + ", " + search.nodes
+				+ " states visited by " + search.workers.size() + " worker(s)");
+	}
+	
+	/**
+	 * Benchmarks the parallel search against the serial AlphaBetaSearch.getBestMove, both deepened to the same depth with no
+	 * time limit and with empty tables, on a fixed set of positions reached by random play from setUpGame() with a fixed
+	 * seed. checkMakeMove() runs first.
+	 */
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int num_positions = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		checkMakeMove();
+		
+		ArrayList<CheckersData> positions = new ArrayList<CheckersData>();
+		Random rand = new Random(2024);
+		while (positions.size() < num_positions) {
+			CheckersData position = new CheckersData();
+			int plies = 2 * (1 + rand.nextInt(15)) + 1; // an odd number of plies, so that BLACK is to move
+			for (int ply = 0; ply < plies && position.getLegalMoves(ply % 2 == 0 ? CheckersData.RED : CheckersData.BLACK) != null; ply++) {
+				CheckersMove[] moves = position.getLegalMoves(ply % 2 == 0 ? CheckersData.RED : CheckersData.BLACK);
+				position.makeMove(moves[rand.nextInt(moves.length)]);
+			}
+			CheckersMove[] moves = position.getLegalMoves(CheckersData.BLACK);
+			if (moves != null && moves.length > 1) {
+				positions.add(position);
+			}
+		}
+		
+		System.out.println("Depth " + depth + ", " + threads + " thread(s), " + num_positions + " positions, "
+				+ Runtime.getRuntime().availableProcessors() + " core(s)");
+		long serial_time = 0, parallel_time = 0;
+		int agree = 0;
+		ParallelAlphaBetaSearch parallel = new ParallelAlphaBetaSearch();
+		parallel.max_search_depth = depth;
+		parallel.time_budget_ms = NO_TIME_LIMIT_MS; // no time limit
+		parallel.parallelism = threads;
+		for (int i = 0; i < positions.size(); i++) {
+			CheckersData position = positions.get(i);
+			CheckersMove[] moves = position.getLegalMoves(CheckersData.BLACK);
+			
+			AlphaBetaSearch serial = new AlphaBetaSearch(); // a new one each time, so no position gains from the table of the one before
+			serial.max_search_depth = depth;
+			serial.time_budget_ms = NO_TIME_LIMIT_MS; // no time limit
+			serial.setCheckersData(position);
+			long start = System.nanoTime();
+			int serial_index = serial.getBestMove(moves);
+			long serial_ns = System.nanoTime() - start;
+			
+			parallel.tt.clear(); // and the same for the parallel search
+			parallel.eval_cache.clear();
+			parallel.setCheckersData(position);
+			start = System.nanoTime();
+			int parallel_index = parallel.getBestMove(moves);
+			long parallel_ns = System.nanoTime() - start;
+			
+			serial_time += serial_ns;
+			parallel_time += parallel_ns;
+			if (serial_index == parallel_index) {
+				agree++;
+			}
+			System.out.println(String.format("%2d: serial %7.1f ms, %9d nodes | parallel %7.1f ms, %9d nodes | %s", i, serial_ns / 1e6, serial.nodes,
+					parallel_ns / 1e6, parallel.nodes, serial_index == parallel_index ? "same move" : "different move"));
+		}
+		parallel.pool.shutdown();
+		System.out.println(String.format("Serial %.1f ms, parallel %.1f ms, speedup %.2f, same move in %d of %d",
+				serial_time / 1e6, parallel_time / 1e6, (double) serial_time / parallel_time, agree, positions.size()));
+	}
+}
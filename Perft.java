@@ -0,0 +1,177 @@
+package edu.iastate.cs472.proj2;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Perft ("performance test") for the move generator. It counts the leaf nodes
+ * of the game tree to a fixed depth, which measures raw move generation speed
+ * and, since the counts are known for the starting position, checks that a
+ * change to generateMoves() or makeMove() keeps exactly the same moves.
+ * 
+ * From setUpGame() with RED to move the counts are 7, 49, 302, 1469, 7361,
+ * 36768, 179740, 845931, 3963680 and 18391564 for depths 1 to 10.
+ * 
+ * Usage: Perft depth [-divide] [-threads n] [-position squares] [-black]
+ *   -divide     also print the count below each root move
+ *   -threads    search the root moves on n threads (default 1)
+ *   -position   the 32 playable squares in index order (see CheckersData.squareIndex),
+ *               each one of r R b B . for red man, red king, black man, black king, empty
+ *   -black      BLACK moves first instead of RED
+ */
+public class Perft {
+	
+	private final CheckersData board; // the position to count from; moves are made and taken back on it
+	
+	private final long[][] move_buffers; // move buffer for each depth
+	
+	/**
+	 * @param board  position to count from, which this object takes over
+	 * @param depth  the deepest depth that will be counted
+	 */
+	Perft(CheckersData board, int depth) {
+		this.board = board;
+		this.move_buffers = new long[Math.max(depth, 1)][CheckersData.MAX_MOVES];
+	}
+	
+	/**
+	 * Count the leaf nodes of the game tree below the position.
+	 * 
+	 * @param player  the player to move, RED or BLACK
+	 * @param depth   number of plies to look ahead
+	 * 
+	 * @return        number of positions reached after exactly depth plies
+	 */
+	long count(int player, int depth) {
+		if (depth == 0) {
+			return 1;
+		}
+		long[] moves = move_buffers[depth - 1];
+		int num_moves = board.generateMoves(player, moves);
+		if (depth == 1) {
+			return num_moves; // the moves themselves are the leaves
+		}
+		int enemy = player == CheckersData.RED ? CheckersData.BLACK : CheckersData.RED;
+		long nodes = 0;
+		for (int i = 0; i < num_moves; i++) {
+			long undo = board.makeMove(moves[i]);
+			nodes += count(enemy, depth - 1);
+			board.unmakeMove(moves[i], undo);
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Parse a position given as the contents of the 32 playable squares.
+	 * 
+	 * @param squares  32 characters, one of r R b B . per square in index order
+	 * 
+	 * @return         the position
+	 */
+	static CheckersData parsePosition(String squares) {
+		if (squares.length() != 32) {
+			throw new IllegalArgumentException("A position needs exactly 32 squares: " + squares);
+		}
+		int[][] board = new int[8][8];
+		for (int square = 0; square < 32; square++) {
+			int piece;
+			switch (squares.charAt(square)) {
+				case 'r':
+					piece = CheckersData.RED;
+					break;
+				case 'R':
+					piece = CheckersData.RED_KING;
+					break;
+				case 'b':
+					piece = CheckersData.BLACK;
+					break;
+				case 'B':
+					piece = CheckersData.BLACK_KING;
+					break;
+				case '.':
+					piece = CheckersData.EMPTY;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown piece '" + squares.charAt(square) + "' in " + squares);
+			}
+			board[BoardTopology.ROW[square]][BoardTopology.COL[square]] = piece;
+		}
+		CheckersData data = new CheckersData();
+		data.setBoard(board);
+		return data;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: Perft depth [-divide] [-threads n] [-position squares] [-black]");
+			return;
+		}
+		int depth = Integer.parseInt(args[0]);
+		boolean divide = false;
+		int threads = 1;
+		int player = CheckersData.RED;
+		CheckersData position = new CheckersData();
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+				case "-divide":
+					divide = true;
+					break;
+				case "-threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "-position":
+					position = parsePosition(args[++i]);
+					break;
+				case "-black":
+					player = CheckersData.BLACK;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		
+		System.out.println(position);
+		System.out.println((player == CheckersData.RED ? "RED" : "BLACK") + " to move, depth " + depth + ", " + threads + " thread(s)");
+		
+		long startTime = System.nanoTime();
+		long nodes;
+		if (depth == 0) {
+			nodes = 1;
+		}
+		else {
+			// Split at the root: each root move is counted separately, on its own copy of the board
+			long[] root_moves = new long[CheckersData.MAX_MOVES];
+			int num_moves = position.generateMoves(player, root_moves);
+			int enemy = player == CheckersData.RED ? CheckersData.BLACK : CheckersData.RED;
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			ArrayList<Future<Long>> counts = new ArrayList<>();
+			nodes = 0;
+			try {
+				for (int i = 0; i < num_moves; i++) {
+					CheckersData child = position.cloneData();
+					child.makeMove(root_moves[i]);
+					counts.add(pool.submit(() -> new Perft(child, depth - 1).count(enemy, depth - 1)));
+				}
+				for (int i = 0; i < num_moves; i++) {
+					long n = counts.get(i).get();
+					if (divide) {
+						System.out.println(CheckersMove.fromCode(root_moves[i]) + ": " + n);
+					}
+					nodes += n;
+				}
+			}
+			finally {
+				pool.shutdown(); // the pool threads would otherwise keep the program running after a failure
+			}
+		}
+		long elapsed = System.nanoTime() - startTime;
+		
+		System.out.println("Nodes: " + nodes);
+		System.out.println("Time: " + (elapsed / 1000000) + " ms");
+		System.out.println("Nodes/second: " + (long) (nodes / (elapsed / 1e9)));
+	}
+}
@@ -0,0 +1,260 @@
+package edu.iastate.cs472.proj2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @author Dylan Khor
+ * 
+ * What one call of AdversarialSearch.makeMove did: the move it made, how long
+ * it took and how that time was spent, and the counters of the engine that
+ * made it. The agent keeps the statistics of its latest move, which
+ * getSearchStats() returns.
+ * 
+ * The counters of AlphaBetaSearch are the nodes searched, the leaves
+ * evaluated, the cutoffs and the share of them made by the first move, the
+ * transposition table hits, the reductions, prunings and re-searches, and the
+ * effective branching factor. Those of
+ * MonteCarloTreeSearch are the playouts and their rate, and the size and
+ * depth of the tree. The fields of the other engine are left at 0 and not
+ * written out.
+ * 
+ * toJson() writes the statistics as one line of JSON, so that a game can log
+ * a line per move and the lines can be read back and graphed.
+ */
+public class SearchStats {
+	
+	static final String ALPHA_BETA = "alpha-beta";
+	
+	static final String MCTS = "mcts";
+	
+	final String engine; // ALPHA_BETA or MCTS
+	
+	final long timestamp_ms = System.currentTimeMillis(); // when makeMove was called, as wall-clock time
+	
+	private final long start = System.nanoTime(); // when makeMove was called, to time it
+	
+	String move; // the move made, null if there was none
+	
+	long time_ns; // time makeMove took
+	
+	boolean book_move; // whether the move came from the opening book
+	
+	boolean ponder_hit; // whether the state had been searched while the human (RED) player thought
+	
+	long tablebase_probes; // probes of positions in the endgame tablebase
+	
+	final LinkedHashMap<String, Long> phase_ns = new LinkedHashMap<String, Long>(); // time spent in each phase of the search, in the order they were first timed
+	
+	// AlphaBetaSearch
+	
+	int depth; // depth of the last iteration that finished
+	
+	long nodes; // states visited, including those visited while pondering after a ponder hit
+	
+	long ponder_nodes; // after a ponder hit, those visited while pondering
+	
+	long ponder_ms; // after a ponder hit, how long the state had been searched while pondering
+	
+	long helper_nodes; // states visited by the helper threads of lazy SMP
+	
+	long leaf_evals; // states evaluated, including those found in the evaluation cache
+	
+	long eval_cache_hits; // those found in the evaluation cache
+	
+	long quiescence_nodes; // states searched past the depth limit because a jump had to be made
+	
+	long cutoffs; // states that were pruned
+	
+	long first_move_cutoffs; // those pruned by the first move searched
+	
+	long tt_probes; // transposition table probes
+	
+	long tt_hits; // those that found their state
+	
+	long lmr_reductions; // moves searched to a reduced depth by late move reductions
+	
+	long lmr_researches; // those that beat the window and were searched again to full depth
+	
+	long futility_prunes; // moves skipped by futility pruning
+	
+	long pvs_researches; // null window searches of principal variation search that had to be repeated with the full window
+	
+	long aspiration_researches; // iterations that had to be repeated with a wider aspiration window
+	
+	final ArrayList<Long> iteration_nodes = new ArrayList<Long>(); // nodes visited by each iteration that finished, from depth 1
+	
+	final ArrayList<Long> iteration_ns = new ArrayList<Long>(); // time each of those iterations took
+	
+	// MonteCarloTreeSearch
+	
+	long playouts; // playouts run by this search
+	
+	long reused_playouts; // playouts already in the tree when the search started, run while the human (RED) player thought
+	
+	long tree_size; // nodes of the tree
+	
+	int max_depth; // depth of the deepest node of the tree, the root being at depth 0
+	
+	/**
+	 * Starts the statistics of a move; the clock of the move starts now.
+	 * 
+	 * @param engine  ALPHA_BETA or MCTS
+	 */
+	SearchStats(String engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * Adds time to a phase of the search.
+	 * 
+	 * @param phase  name of the phase
+	 * @param ns     time spent in it, in nanoseconds
+	 */
+	void addPhase(String phase, long ns) {
+		phase_ns.merge(phase, ns, Long::sum);
+	}
+	
+	/**
+	 * Stops the clock of the move.
+	 * 
+	 * @param move  the move made, or null if there was none
+	 * 
+	 * @return      move, so that makeMove can return it
+	 */
+	CheckersMove finish(CheckersMove move) {
+		this.move = move == null ? null : move.toString();
+		time_ns = System.nanoTime() - start;
+		return move;
+	}
+	
+	/**
+	 * @return  time makeMove took, in milliseconds
+	 */
+	double timeMs() {
+		return time_ns / 1e6;
+	}
+	
+	/**
+	 * @return  fraction of the cutoffs made by the first move searched, 0 if there were none
+	 */
+	double firstMoveCutoffRate() {
+		return cutoffs == 0 ? 0 : (double) first_move_cutoffs / cutoffs;
+	}
+	
+	/**
+	 * @return  fraction of the leaf evaluations found in the evaluation cache, 0 if there were none
+	 */
+	double evalCacheHitRate() {
+		return leaf_evals == 0 ? 0 : (double) eval_cache_hits / leaf_evals;
+	}
+	
+	/**
+	 * @return  fraction of the transposition table probes that found their state, 0 if there were none
+	 */
+	double ttHitRate() {
+		return tt_probes == 0 ? 0 : (double) tt_hits / tt_probes;
+	}
+	
+	/**
+	 * The effective branching factor: how many times more nodes the last iteration that finished visited than the one
+	 * before it.
+	 * 
+	 * @return  the ratio, or 0 if fewer than two iterations finished
+	 */
+	double branchingFactor() {
+		int n = iteration_nodes.size();
+		if (n < 2 || iteration_nodes.get(n - 2) == 0) {
+			return 0;
+		}
+		return (double) iteration_nodes.get(n - 1) / iteration_nodes.get(n - 2);
+	}
+	
+	/**
+	 * @return  playouts run by this search per second of the move, 0 if no time was measured
+	 */
+	double playoutsPerSecond() {
+		return time_ns == 0 ? 0 : playouts * 1e9 / time_ns;
+	}
+	
+	/**
+	 * @return  the statistics as one line of JSON, with times in milliseconds
+	 */
+	String toJson() {
+		StringBuilder json = new StringBuilder("{");
+		field(json, "timestamp_ms", String.valueOf(timestamp_ms));
+		field(json, "engine", quote(engine));
+		field(json, "move", move == null ? "null" : quote(move));
+		field(json, "time_ms", number(timeMs()));
+		field(json, "book_move", String.valueOf(book_move));
+		field(json, "ponder_hit", String.valueOf(ponder_hit));
+		field(json, "tablebase_probes", String.valueOf(tablebase_probes));
+		StringBuilder phases = new StringBuilder("{");
+		for (Map.Entry<String, Long> phase : phase_ns.entrySet()) {
+			field(phases, phase.getKey(), number(phase.getValue() / 1e6));
+		}
+		field(json, "phase_ms", phases.append('}').toString());
+		if (engine.equals(ALPHA_BETA)) {
+			field(json, "depth", String.valueOf(depth));
+			field(json, "nodes", String.valueOf(nodes));
+			field(json, "ponder_nodes", String.valueOf(ponder_nodes));
+			field(json, "ponder_ms", String.valueOf(ponder_ms));
+			field(json, "helper_nodes", String.valueOf(helper_nodes));
+			field(json, "leaf_evals", String.valueOf(leaf_evals));
+			field(json, "eval_cache_hits", String.valueOf(eval_cache_hits));
+			field(json, "eval_cache_hit_rate", number(evalCacheHitRate()));
+			field(json, "quiescence_nodes", String.valueOf(quiescence_nodes));
+			field(json, "cutoffs", String.valueOf(cutoffs));
+			field(json, "first_move_cutoff_rate", number(firstMoveCutoffRate()));
+			field(json, "tt_probes", String.valueOf(tt_probes));
+			field(json, "tt_hits", String.valueOf(tt_hits));
+			field(json, "lmr_reductions", String.valueOf(lmr_reductions));
+			field(json, "lmr_researches", String.valueOf(lmr_researches));
+			field(json, "futility_prunes", String.valueOf(futility_prunes));
+			field(json, "pvs_researches", String.valueOf(pvs_researches));
+			field(json, "aspiration_researches", String.valueOf(aspiration_researches));
+			field(json, "branching_factor", number(branchingFactor()));
+			field(json, "iteration_nodes", iteration_nodes.toString());
+			StringBuilder times = new StringBuilder("[");
+			for (long ns : iteration_ns) {
+				times.append(times.length() > 1 ? "," : "").append(number(ns / 1e6));
+			}
+			field(json, "iteration_ms", times.append(']').toString());
+		}
+		else {
+			field(json, "playouts", String.valueOf(playouts));
+			field(json, "reused_playouts", String.valueOf(reused_playouts));
+			field(json, "playouts_per_sec", number(playoutsPerSecond()));
+			field(json, "tree_size", String.valueOf(tree_size));
+			field(json, "max_depth", String.valueOf(max_depth));
+		}
+		return json.append('}').toString();
+	}
+	
+	public String toString() {
+		return toJson();
+	}
+	
+	private static void field(StringBuilder json, String name, String value) {
+		if (json.length() > 1) {
+			json.append(',');
+		}
+		json.append(quote(name)).append(':').append(value);
+	}
+	
+	private static String quote(String text) {
+		return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+	}
+	
+	/**
+	 * JSON has no NaN or infinities, so those are written as null.
+	 */
+	private static String number(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return "null";
+		}
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+}
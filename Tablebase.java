@@ -0,0 +1,476 @@
+package edu.iastate.cs472.proj2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Endgame tablebase: the game-theoretic value of every position with few
+ * pieces, as solved by TablebaseGenerator, so that the engines can look an
+ * endgame up instead of searching it.
+ * 
+ * The positions are split by material signature, the number of red men, red
+ * kings, black men and black kings, with one file per signature. Within a
+ * signature a position is numbered by the combinatorial number system: each
+ * kind of piece picks a combination of the squares it may stand on (men never
+ * stand on the row they are crowned on), and the index is the mixed-radix
+ * number formed by the ranks of the four combinations and the player to move.
+ * Indices where two kinds of piece share a square are not positions and are
+ * marked INVALID.
+ * 
+ * Each position takes one byte, from the point of view of the player to move:
+ * DRAW, a win in 1..MAX_DISTANCE plies or a loss in 0..MAX_DISTANCE plies.
+ * The bytes are cut into blocks of BLOCK_SIZE positions, each compressed on
+ * its own with Deflate, so that a probe only inflates the block it needs.
+ * 
+ * File layout (big-endian): the int MAGIC, the int VERSION, the four piece
+ * counts as bytes, the long number of positions, the int BLOCK_SIZE, the int
+ * file offset of each block and of the end of the last one, then the blocks.
+ * 
+ * The files are memory-mapped rather than read onto the heap, and only the
+ * blocks probed lately are kept inflated, in an LRU cache of a fixed number
+ * of blocks. Probing is thread-safe.
+ */
+public class Tablebase {
+	
+	static final int MAGIC = 0x434B5442; // "CKTB"
+	
+	static final int VERSION = 2;
+	
+	static final int HEADER_BYTES = 24; // bytes before the block offsets
+	
+	static final int BLOCK_SIZE = 4096; // positions per compressed block
+	
+	static final int DEFAULT_CACHE_BLOCKS = 1024; // blocks kept inflated by openDefault(), 4 MB
+	
+	static final int CACHE_SEGMENTS = 16; // independently locked parts of the block cache
+	
+	static final int DRAW = 0; // neither side can force a win; also the value of a position not solved yet during generation
+	
+	static final int LOSS = 128; // LOSS + d: the player to move loses in d plies
+	
+	static final int INVALID = 255; // the index is not a position
+	
+	static final int MAX_DISTANCE = 126; // the longest win or loss a byte can hold
+	
+	static final int RED_MEN_SQUARES = 28; // red men stand on squares 4..31, since they are crowned on row 0
+	
+	static final int BLACK_MEN_SQUARES = 28; // black men stand on squares 0..27, since they are crowned on row 7
+	
+	static final long[][] BINOMIAL = new long[33][13]; // BINOMIAL[n][k] is n choose k
+	
+	static {
+		for (int n = 0; n <= 32; n++) {
+			BINOMIAL[n][0] = 1;
+			for (int k = 1; k <= Math.min(n, 12); k++) {
+				BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+			}
+		}
+	}
+	
+	private final File directory; // where the tablebase files are
+	
+	final int max_pieces; // the most pieces of any signature in the directory
+	
+	private final ConcurrentHashMap<Integer, Table> tables = new ConcurrentHashMap<Integer, Table>(); // mapped files by signature
+	
+	private static final Table MISSING = new Table(null, 0, 0, 0); // stands for a signature with no file
+	
+	private final BlockCache cache; // the blocks decompressed lately
+	
+	private final LongAdder probes = new LongAdder(); // probes of positions in the tablebase
+	
+	/**
+	 * A mapped tablebase file. Block b is compressed in data[offset(b), offset(b + 1)).
+	 */
+	private static final class Table {
+		
+		final ByteBuffer data; // the whole file, read-only; only absolute gets and duplicates are used, so it is shared by all threads
+		
+		final int signature;
+		
+		final long size; // number of positions
+		
+		final int blocks; // number of blocks
+		
+		Table(ByteBuffer data, int signature, long size, int blocks) {
+			this.data = data;
+			this.signature = signature;
+			this.size = size;
+			this.blocks = blocks;
+		}
+		
+		int offset(int block) {
+			return data.getInt(HEADER_BYTES + 4 * block);
+		}
+	}
+	
+	/**
+	 * A bounded LRU cache of decompressed blocks, keyed by signature and block number. It is split into segments, each
+	 * an access-ordered LinkedHashMap under its own lock, so that searchers probing different blocks rarely wait for each other.
+	 */
+	private static final class BlockCache {
+		
+		private final LinkedHashMap<Long, byte[]>[] segments;
+		
+		final LongAdder hits = new LongAdder(), misses = new LongAdder();
+		
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		BlockCache(int capacity, int num_segments) {
+			int per_segment = Math.max(1, capacity / num_segments);
+			segments = new LinkedHashMap[num_segments];
+			for (int i = 0; i < num_segments; i++) {
+				segments[i] = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					
+					protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+						return size() > per_segment;
+					}
+				};
+			}
+		}
+		
+		private LinkedHashMap<Long, byte[]> segment(long key) {
+			return segments[Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), segments.length)];
+		}
+		
+		byte[] get(long key) {
+			LinkedHashMap<Long, byte[]> segment = segment(key);
+			byte[] block;
+			synchronized (segment) {
+				block = segment.get(key);
+			}
+			(block != null ? hits : misses).increment();
+			return block;
+		}
+		
+		void put(long key, byte[] block) {
+			LinkedHashMap<Long, byte[]> segment = segment(key);
+			synchronized (segment) {
+				segment.put(key, block);
+			}
+		}
+	}
+	
+	/**
+	 * @param directory     directory holding the tablebase files written by TablebaseGenerator
+	 * @param cache_blocks  the most decompressed blocks kept in memory, BLOCK_SIZE bytes each
+	 */
+	Tablebase(File directory, int cache_blocks) {
+		this.directory = directory;
+		this.cache = new BlockCache(cache_blocks, CACHE_SEGMENTS);
+		int most = 0;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.matches("tb\\d{4}\\.bin")) {
+					int pieces = 0;
+					for (int i = 2; i < 6; i++) {
+						pieces += name.charAt(i) - '0';
+					}
+					most = Math.max(most, pieces);
+				}
+			}
+		}
+		max_pieces = most;
+	}
+	
+	/**
+	 * Opens the tablebase in the directory "tablebase", if it is there.
+	 * 
+	 * @return  the tablebase, or null if there is none
+	 */
+	static Tablebase openDefault() {
+		File directory = new File("tablebase");
+		if (!directory.isDirectory()) {
+			return null;
+		}
+		Tablebase tablebase = new Tablebase(directory, DEFAULT_CACHE_BLOCKS);
+		return tablebase.max_pieces > 0 ? tablebase : null;
+	}
+	
+	/**
+	 * Look a position up. Safe to call from several threads at once.
+	 * 
+	 * @param state   the position
+	 * @param player  the player to move, RED or BLACK
+	 * 
+	 * @return        DRAW, d for a win in d plies or LOSS + d for a loss in d plies, for the player to move;
+	 *                -1 if the position is not in the tablebase
+	 */
+	int probe(CheckersData state, int player) {
+		int redMen = state.redMen, redKings = state.redKings, blackMen = state.blackMen, blackKings = state.blackKings;
+		if (Integer.bitCount(redMen | redKings | blackMen | blackKings) > max_pieces) {
+			return -1;
+		}
+		if ((redMen | redKings) == 0 || (blackMen | blackKings) == 0) {
+			return (player == CheckersData.RED) == ((redMen | redKings) == 0) ? LOSS : -1; // no pieces, no moves
+		}
+		Table table = table(Integer.bitCount(redMen), Integer.bitCount(redKings), Integer.bitCount(blackMen), Integer.bitCount(blackKings));
+		if (table == MISSING) {
+			return -1;
+		}
+		probes.increment();
+		long index = index(redMen, redKings, blackMen, blackKings, player);
+		int block = (int) (index / BLOCK_SIZE);
+		long key = (long) table.signature << 32 | block;
+		byte[] values = cache.get(key);
+		if (values == null) {
+			values = decompress(table, block);
+			cache.put(key, values);
+		}
+		return values[(int) (index % BLOCK_SIZE)] & 0xFF;
+	}
+	
+	/**
+	 * @return  the values of one block of a table, inflated from the mapped file
+	 */
+	private static byte[] decompress(Table table, int block) {
+		byte[] values = new byte[(int) Math.min(BLOCK_SIZE, table.size - (long) block * BLOCK_SIZE)];
+		ByteBuffer compressed = table.data.duplicate();
+		compressed.limit(table.offset(block + 1)).position(table.offset(block));
+		Inflater inflater = new Inflater(true); // one per block, so that its native memory is freed here and not left to each probing thread
+		inflater.setInput(compressed);
+		try {
+			if (inflater.inflate(values) != values.length) {
+				throw new IllegalStateException("Block " + block + " of tablebase signature " + Integer.toHexString(table.signature) + " is truncated");
+			}
+		}
+		catch (DataFormatException e) {
+			throw new IllegalStateException("Block " + block + " of tablebase signature " + Integer.toHexString(table.signature) + " is corrupt", e);
+		}
+		finally {
+			inflater.end();
+		}
+		return values;
+	}
+	
+	/**
+	 * @return  the table of a signature, mapped when first needed, or MISSING if it has no file
+	 */
+	private Table table(int redMen, int redKings, int blackMen, int blackKings) {
+		return tables.computeIfAbsent(signature(redMen, redKings, blackMen, blackKings), key -> {
+			File file = new File(directory, fileName(redMen, redKings, blackMen, blackKings));
+			if (!file.isFile()) {
+				return MISSING;
+			}
+			try {
+				return map(file, redMen, redKings, blackMen, blackKings);
+			}
+			catch (IOException e) {
+				System.err.println("Could not read " + file + ": " + e.getMessage());
+				return MISSING;
+			}
+		});
+	}
+	
+	/**
+	 * Maps a tablebase file, checking that it holds the expected signature. Nothing but the header is read here; the
+	 * operating system pages the blocks in as they are probed.
+	 */
+	private static Table map(File file, int redMen, int redKings, int blackMen, int blackKings) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("too big to map");
+			}
+			ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // the mapping outlives the channel
+			if (data.limit() < HEADER_BYTES || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+				throw new IOException("not a tablebase file of version " + VERSION);
+			}
+			if (data.get(8) != redMen || data.get(9) != redKings || data.get(10) != blackMen || data.get(11) != blackKings) {
+				throw new IOException("wrong material signature");
+			}
+			long size = data.getLong(12);
+			if (size != size(redMen, redKings, blackMen, blackKings) || data.getInt(20) != BLOCK_SIZE) {
+				throw new IOException("wrong number of positions or block size");
+			}
+			int blocks = blocks(size);
+			if (data.limit() < HEADER_BYTES + 4 * (blocks + 1) || data.getInt(HEADER_BYTES + 4 * blocks) != data.limit()) {
+				throw new IOException("truncated");
+			}
+			return new Table(data, signature(redMen, redKings, blackMen, blackKings), size, blocks);
+		}
+	}
+	
+	/**
+	 * @return  number of blocks of a table with the given number of positions
+	 */
+	static int blocks(long size) {
+		return (int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+	}
+	
+	/**
+	 * Writes a solved table in the file format, compressing it block by block.
+	 */
+	static void write(File file, int[] signature, byte[] table) throws IOException {
+		int blocks = blocks(table.length);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		int[] offsets = new int[blocks + 1];
+		int data_start = HEADER_BYTES + 4 * (blocks + 1);
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		byte[] buffer = new byte[BLOCK_SIZE + 1024];
+		for (int block = 0; block < blocks; block++) {
+			offsets[block] = data_start + compressed.size();
+			deflater.reset();
+			deflater.setInput(table, block * BLOCK_SIZE, Math.min(BLOCK_SIZE, table.length - block * BLOCK_SIZE));
+			deflater.finish();
+			while (!deflater.finished()) {
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+		}
+		deflater.end();
+		offsets[blocks] = data_start + compressed.size();
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (int count : signature) {
+				out.writeByte(count);
+			}
+			out.writeLong(table.length);
+			out.writeInt(BLOCK_SIZE);
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+			compressed.writeTo(out);
+		}
+	}
+	
+	/**
+	 * @return  the number of probes of positions in the tablebase so far
+	 */
+	long probes() {
+		return probes.sum();
+	}
+	
+	/**
+	 * @return  the probes so far and how often the block cache had the block
+	 */
+	public String toString() {
+		long hits = cache.hits.sum(), misses = cache.misses.sum();
+		return String.format("Tablebase: %d probes, block cache %d hits, %d misses (%.1f%%)", probes.sum(), hits, misses,
+				100.0 * hits / Math.max(hits + misses, 1));
+	}
+	
+	/**
+	 * Converts a value from probe() to a utility for the agent (BLACK), on the scale of the search: a win is worth
+	 * nearly 1, less the longer it takes, and a loss nearly -1.
+	 * 
+	 * @param value   the value from probe(), not -1
+	 * @param player  the player to move in the position
+	 * 
+	 * @return        the utility of the position for the agent (BLACK)
+	 */
+	static double utility(int value, int player) {
+		double utility;
+		if (value == DRAW) {
+			return 0;
+		}
+		else if (value < LOSS) {
+			utility = 1 - 0.001 * value;
+		}
+		else {
+			utility = -(1 - 0.001 * (value - LOSS));
+		}
+		return player == CheckersData.BLACK ? utility : -utility;
+	}
+	
+	static int signature(int redMen, int redKings, int blackMen, int blackKings) {
+		return redMen | redKings << 4 | blackMen << 8 | blackKings << 12;
+	}
+	
+	static String fileName(int redMen, int redKings, int blackMen, int blackKings) {
+		return "tb" + redMen + redKings + blackMen + blackKings + ".bin";
+	}
+	
+	/**
+	 * @return  number of indices of a signature, including the INVALID ones: two per placement of the pieces, one for each player to move
+	 */
+	static long size(int redMen, int redKings, int blackMen, int blackKings) {
+		return BINOMIAL[RED_MEN_SQUARES][redMen] * BINOMIAL[BLACK_MEN_SQUARES][blackMen]
+				* BINOMIAL[32][redKings] * BINOMIAL[32][blackKings] * 2;
+	}
+	
+	/**
+	 * @return  the index of a position within the table of its signature
+	 */
+	static long index(int redMen, int redKings, int blackMen, int blackKings, int player) {
+		long index = rank(redMen >>> 4);
+		index = index * BINOMIAL[BLACK_MEN_SQUARES][Integer.bitCount(blackMen)] + rank(blackMen);
+		index = index * BINOMIAL[32][Integer.bitCount(redKings)] + rank(redKings);
+		index = index * BINOMIAL[32][Integer.bitCount(blackKings)] + rank(blackKings);
+		return index * 2 + (player == CheckersData.BLACK ? 1 : 0);
+	}
+	
+	/**
+	 * The inverse of index(): sets up the position with the given index.
+	 * 
+	 * @param state   set to the position, if the index is one
+	 * 
+	 * @return        the player to move, or -1 if two kinds of piece share a square and the index is INVALID
+	 */
+	static int decode(long index, int redMen, int redKings, int blackMen, int blackKings, CheckersData state) {
+		int player = (index & 1) == 0 ? CheckersData.RED : CheckersData.BLACK;
+		index >>>= 1;
+		long kingRadix = BINOMIAL[32][blackKings];
+		int blackKingSet = unrank(index % kingRadix, blackKings);
+		index /= kingRadix;
+		kingRadix = BINOMIAL[32][redKings];
+		int redKingSet = unrank(index % kingRadix, redKings);
+		index /= kingRadix;
+		long menRadix = BINOMIAL[BLACK_MEN_SQUARES][blackMen];
+		int blackMenSet = unrank(index % menRadix, blackMen);
+		int redMenSet = unrank(index / menRadix, redMen) << 4;
+		if ((redMenSet & blackMenSet) != 0 || ((redMenSet | blackMenSet) & redKingSet) != 0
+				|| ((redMenSet | blackMenSet | redKingSet) & blackKingSet) != 0) {
+			return -1;
+		}
+		state.setPieces(redMenSet, redKingSet, blackMenSet, blackKingSet);
+		return player;
+	}
+	
+	/**
+	 * @return  the rank of a set of squares among the sets of the same size, in the combinatorial number system
+	 */
+	static long rank(int squares) {
+		long rank = 0;
+		int k = 0;
+		for (int bits = squares; bits != 0; bits &= bits - 1) {
+			rank += BINOMIAL[Integer.numberOfTrailingZeros(bits)][++k];
+		}
+		return rank;
+	}
+	
+	/**
+	 * @return  the set of k squares with the given rank, the inverse of rank()
+	 */
+	static int unrank(long rank, int k) {
+		int squares = 0;
+		int square = 31;
+		for (; k > 0; k--) {
+			while (BINOMIAL[square][k] > rank) {
+				square--;
+			}
+			squares |= 1 << square;
+			rank -= BINOMIAL[square][k];
+			square--;
+		}
+		return squares;
+	}
+}
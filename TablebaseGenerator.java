@@ -0,0 +1,234 @@
+package edu.iastate.cs472.proj2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Offline tool that solves every position with up to K pieces by retrograde
+ * analysis and writes the results as Tablebase files.
+ * 
+ * Signatures are solved in an order where every move leads to a signature
+ * already solved or to the one being solved: fewer pieces first, since a jump
+ * removes pieces, and for the same number of pieces fewer men first, since
+ * crowning turns a man into a king. Within a signature, the positions where
+ * the player to move has no move are lost in 0 plies. Then sweep d decides
+ * the positions won or lost in d plies: a position is won in d if some move
+ * leads to a position lost in d - 1, and lost in d if every move leads to a
+ * position won in fewer than d. A sweep only uses values of distance below d,
+ * so the positions decided during it do not affect each other and the sweep
+ * can be split between threads without changing the result. When sweeps stop
+ * deciding positions, the rest are draws.
+ * 
+ * Usage: TablebaseGenerator K [directory] [-threads n]
+ *   K           the most pieces on the board, at least 2
+ *   directory   where to write the files (default "tablebase")
+ *   -threads    number of threads (default: the number of processors)
+ */
+public class TablebaseGenerator {
+	
+	private final int threads; // number of threads sweeping a table
+	
+	private final ExecutorService pool; // the sweeping threads
+	
+	private final HashMap<Integer, byte[]> solved = new HashMap<Integer, byte[]>(); // the tables solved so far, by signature
+	
+	private int max_solved_distance; // the longest win or loss in the tables solved so far
+	
+	TablebaseGenerator(int threads) {
+		this.threads = threads;
+		this.pool = Executors.newFixedThreadPool(threads);
+	}
+	
+	/**
+	 * @return  the material signatures with 2 to max_pieces pieces and at least one piece on each side, in the order they have to be solved in
+	 */
+	static ArrayList<int[]> signatures(int max_pieces) {
+		ArrayList<int[]> signatures = new ArrayList<int[]>();
+		for (int pieces = 2; pieces <= max_pieces; pieces++) {
+			for (int men = 0; men <= pieces; men++) {
+				for (int redMen = 0; redMen <= men; redMen++) {
+					int blackMen = men - redMen;
+					for (int redKings = 0; redKings <= pieces - men; redKings++) {
+						int blackKings = pieces - men - redKings;
+						if (redMen + redKings > 0 && blackMen + blackKings > 0 && redMen + redKings <= 12 && blackMen + blackKings <= 12) {
+							signatures.add(new int[] { redMen, redKings, blackMen, blackKings });
+						}
+					}
+				}
+			}
+		}
+		return signatures;
+	}
+	
+	/**
+	 * Solves one signature, whose successors must all be solved already.
+	 * 
+	 * @return  the value of each index of the signature
+	 */
+	byte[] solve(int[] signature) throws Exception {
+		long size = Tablebase.size(signature[0], signature[1], signature[2], signature[3]);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Signature " + Tablebase.fileName(signature[0], signature[1], signature[2], signature[3]) + " is too big");
+		}
+		byte[] table = new byte[(int) size];
+		sweep(table, signature, 0);
+		int quiet_sweeps = 0;
+		for (int distance = 1; ; distance++) {
+			if (sweep(table, signature, distance) > 0) {
+				quiet_sweeps = 0;
+			}
+			else if (++quiet_sweeps > 1 && distance > max_solved_distance + 1) {
+				break; // nothing decided, and no successor table has a longer distance that could still decide something
+			}
+			if (distance > Tablebase.MAX_DISTANCE) {
+				throw new IllegalStateException("A win takes more than " + Tablebase.MAX_DISTANCE + " plies, which the files cannot hold");
+			}
+		}
+		for (byte value : table) {
+			int distance = (value & 0xFF) == Tablebase.INVALID ? 0 : (value & 0xFF) >= Tablebase.LOSS ? (value & 0xFF) - Tablebase.LOSS : value & 0xFF;
+			max_solved_distance = Math.max(max_solved_distance, distance);
+		}
+		solved.put(Tablebase.signature(signature[0], signature[1], signature[2], signature[3]), table);
+		return table;
+	}
+	
+	/**
+	 * One sweep over a table, split into a range of indices per thread.
+	 * 
+	 * @param distance  the distance of the positions decided; 0 marks the INVALID indices and the positions without a move
+	 * 
+	 * @return          number of positions decided
+	 */
+	private long sweep(byte[] table, int[] signature, int distance) throws Exception {
+		ArrayList<Future<Long>> parts = new ArrayList<Future<Long>>();
+		int chunk = (table.length + threads - 1) / threads;
+		for (int start = 0; start < table.length; start += chunk) {
+			int from = start;
+			int to = Math.min(table.length, start + chunk);
+			parts.add(pool.submit(() -> sweep(table, signature, distance, from, to)));
+		}
+		long decided = 0;
+		for (Future<Long> part : parts) {
+			decided += part.get();
+		}
+		return decided;
+	}
+	
+	private long sweep(byte[] table, int[] signature, int distance, int from, int to) {
+		CheckersData state = new CheckersData();
+		long[] moves = new long[CheckersData.MAX_MOVES];
+		long decided = 0;
+		for (int index = from; index < to; index++) {
+			if (distance > 0 && table[index] != Tablebase.DRAW) {
+				continue; // decided already
+			}
+			int player = Tablebase.decode(index, signature[0], signature[1], signature[2], signature[3], state);
+			if (distance == 0) {
+				if (player < 0) {
+					table[index] = (byte) Tablebase.INVALID;
+				}
+				else if (!state.hasLegalMove(player)) {
+					table[index] = (byte) Tablebase.LOSS;
+					decided++;
+				}
+				continue;
+			}
+			
+			int enemy = player == CheckersData.RED ? CheckersData.BLACK : CheckersData.RED;
+			int num_moves = state.generateMoves(player, moves);
+			boolean all_won = true; // every move so far leads to a position the enemy wins in fewer than distance plies
+			boolean win = false;
+			for (int i = 0; i < num_moves && !win; i++) {
+				long undo = state.makeMove(moves[i]);
+				int value = value(table, signature, state, enemy);
+				state.unmakeMove(moves[i], undo);
+				if (value >= Tablebase.LOSS && value - Tablebase.LOSS < distance) {
+					win = true;
+				}
+				else if (value == Tablebase.DRAW || value >= Tablebase.LOSS || value >= distance) {
+					all_won = false;
+				}
+			}
+			if (win) {
+				table[index] = (byte) distance;
+				decided++;
+			}
+			else if (all_won) {
+				table[index] = (byte) (Tablebase.LOSS + distance);
+				decided++;
+			}
+		}
+		return decided;
+	}
+	
+	/**
+	 * @return  the value of the position reached by a move, from the table being solved or one solved before it
+	 */
+	private int value(byte[] table, int[] signature, CheckersData state, int player) {
+		int redMen = state.redMen, redKings = state.redKings, blackMen = state.blackMen, blackKings = state.blackKings;
+		if ((player == CheckersData.RED ? redMen | redKings : blackMen | blackKings) == 0) {
+			return Tablebase.LOSS; // the last piece has been taken
+		}
+		int rm = Integer.bitCount(redMen), rk = Integer.bitCount(redKings), bm = Integer.bitCount(blackMen), bk = Integer.bitCount(blackKings);
+		int index = (int) Tablebase.index(redMen, redKings, blackMen, blackKings, player);
+		if (rm == signature[0] && rk == signature[1] && bm == signature[2] && bk == signature[3]) {
+			return table[index] & 0xFF;
+		}
+		return solved.get(Tablebase.signature(rm, rk, bm, bk))[index] & 0xFF;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.out.println("Usage: TablebaseGenerator K [directory] [-threads n]");
+			return;
+		}
+		int max_pieces = Integer.parseInt(args[0]);
+		File directory = new File("tablebase");
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-threads")) {
+				threads = Integer.parseInt(args[++i]);
+			}
+			else {
+				directory = new File(args[i]);
+			}
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		
+		TablebaseGenerator generator = new TablebaseGenerator(threads);
+		long startTime = System.nanoTime();
+		try {
+			for (int[] signature : signatures(max_pieces)) {
+				long start = System.nanoTime();
+				byte[] table = generator.solve(signature);
+				String name = Tablebase.fileName(signature[0], signature[1], signature[2], signature[3]);
+				File file = new File(directory, name);
+				Tablebase.write(file, signature, table);
+				
+				long wins = 0, losses = 0, draws = 0;
+				for (byte value : table) {
+					int v = value & 0xFF;
+					if (v == Tablebase.DRAW) draws++;
+					else if (v == Tablebase.INVALID) continue;
+					else if (v >= Tablebase.LOSS) losses++;
+					else wins++;
+				}
+				System.out.println(String.format("%s: %d positions, %d wins, %d losses, %d draws, %d ms, %d bytes (%.1f%%)", name,
+						wins + losses + draws, wins, losses, draws, (System.nanoTime() - start) / 1000000, file.length(), 100.0 * file.length() / table.length));
+			}
+		}
+		finally {
+			generator.pool.shutdown(); // the pool threads would otherwise keep the program running after a failure
+		}
+		System.out.println("Done in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+	}
+}
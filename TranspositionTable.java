@@ -0,0 +1,166 @@
+package edu.iastate.cs472.proj2;
+
+import java.util.Arrays;
+
+/**
+ * @author Dylan Khor
+ * 
+ * Fixed-size transposition table for AlphaBetaSearch. It remembers the result
+ * of searching a position, keyed by its Zobrist key (CheckersData.zobristKey),
+ * so a position reached again through a different order of moves does not
+ * have to be searched again.
+ * 
+ * Entries are kept in parallel primitive arrays rather than objects, and are
+ * grouped in buckets of two slots. The first slot of a bucket keeps the entry
+ * that was searched deepest, the second is always replaced, so deep results
+ * survive while recent shallow ones still get stored. Each entry holds the
+ * depth it was searched to, the kind of bound its score is, the score and the
+ * best move found.
+ * 
+ * The table can be shared by several searching threads without locks. An
+ * entry is written as four separate array elements, so a reader racing with
+ * a writer may see half of an old entry and half of a new one. To catch this
+ * the key is not stored as it is but XORed with the other three fields; a
+ * torn entry then no longer matches its key and reads as a miss.
+ * 
+ * The lowest bit of the key is set before it is stored or compared, so that
+ * an empty slot, which is all zero, matches no key, not even 0. No two keys
+ * are confused by this, since that bit also picks the bucket.
+ */
+public class TranspositionTable {
+	
+	static final int EXACT = 0; // the score is the exact value of the position
+	
+	static final int LOWER = 1; // the search failed high, the value is at least the score
+	
+	static final int UPPER = 2; // the search failed low, the value is at most the score
+	
+	static final int ENTRY_BYTES = 32; // check, move, score and info longs
+	
+	/**
+	 * What a probe found. Each searching thread keeps its own, which also
+	 * counts that thread's probes and hits.
+	 */
+	static final class Probe {
+		
+		long move; // best move in the CheckersMove code format, 0 for none
+		
+		double score; // the score the search returned
+		
+		int depth; // number of plies the position was searched to
+		
+		int bound; // EXACT, LOWER or UPPER
+		
+		long probes; // number of probes made with this object
+		
+		long hits; // number of those that found their position
+		
+		/**
+		 * @return  fraction of the probes that found their position, 0 if there were none
+		 */
+		double hitRate() {
+			return probes == 0 ? 0 : (double) hits / probes;
+		}
+		
+		void resetCounters() {
+			probes = hits = 0;
+		}
+		
+		public String toString() {
+			return String.format("TT: %d probes, %d hits (%.1f%%)", probes, hits, 100 * hitRate());
+		}
+	}
+	
+	private final long[] checks; // (key | 1) ^ move ^ score ^ info of each entry, 0 for an empty slot
+	
+	private final long[] moves; // best move of each entry in the CheckersMove code format, 0 for none
+	
+	private final long[] scores; // score of each entry, as Double.doubleToRawLongBits
+	
+	private final long[] info; // depth << 2 | bound of each entry
+	
+	private final int bucket_mask; // number of buckets - 1
+	
+	final int size_mb; // memory the table was made for, in megabytes
+	
+	/**
+	 * @param size_mb  memory to use for the table in megabytes, rounded down to a power of two number of buckets
+	 */
+	TranspositionTable(int size_mb) {
+		this.size_mb = size_mb;
+		long entries = Math.max(2, (long) size_mb * 1024 * 1024 / ENTRY_BYTES);
+		int buckets = Integer.highestOneBit((int) Math.min(entries / 2, 1 << 30));
+		bucket_mask = buckets - 1;
+		checks = new long[buckets * 2];
+		moves = new long[buckets * 2];
+		scores = new long[buckets * 2];
+		info = new long[buckets * 2];
+	}
+	
+	/**
+	 * Look a position up.
+	 * 
+	 * @param key    Zobrist key of the position, including the player to move
+	 * @param found  filled in with the entry of the position, if it is found
+	 * 
+	 * @return       true if the position is in the table
+	 */
+	boolean probe(long key, Probe found) {
+		found.probes++;
+		int slot = bucketOf(key);
+		key |= 1;
+		for (int end = slot + 2; slot < end; slot++) {
+			long move = moves[slot];
+			long score = scores[slot];
+			long data = info[slot];
+			if ((checks[slot] ^ move ^ score ^ data) == key) {
+				found.move = move;
+				found.score = Double.longBitsToDouble(score);
+				found.depth = (int) (data >>> 2);
+				found.bound = (int) (data & 3);
+				found.hits++;
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Remember the result of searching a position.
+	 * 
+	 * @param key    Zobrist key of the position, including the player to move
+	 * @param depth  number of plies the position was searched to
+	 * @param bound  EXACT, LOWER or UPPER
+	 * @param score  the score the search returned
+	 * @param move   best move found in the CheckersMove code format, 0 if none
+	 */
+	void store(long key, int depth, int bound, double score, long move) {
+		int slot = bucketOf(key);
+		key |= 1;
+		// the deep slot is taken if it is empty, holds this position, or holds a shallower search; anything else goes in the second slot
+		long deepKey = checks[slot] ^ moves[slot] ^ scores[slot] ^ info[slot];
+		if (checks[slot] != 0 && deepKey != key && (info[slot] >>> 2) > depth) {
+			slot++;
+		}
+		long scoreBits = Double.doubleToRawLongBits(score);
+		long data = (long) depth << 2 | bound;
+		moves[slot] = move;
+		scores[slot] = scoreBits;
+		info[slot] = data;
+		checks[slot] = key ^ move ^ scoreBits ^ data;
+	}
+	
+	/**
+	 * Empty the table.
+	 */
+	void clear() {
+		Arrays.fill(checks, 0);
+		Arrays.fill(moves, 0);
+		Arrays.fill(scores, 0);
+		Arrays.fill(info, 0);
+	}
+	
+	private int bucketOf(long key) {
+		return ((int) (key ^ (key >>> 32)) & bucket_mask) << 1;
+	}
+}